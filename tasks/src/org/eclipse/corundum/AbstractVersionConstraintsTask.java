@@ -0,0 +1,763 @@
+/******************************************************************************
+ * Copyright (c) 2016 Oracle
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Konstantin Komissarchik - initial implementation and ongoing maintenance
+ ******************************************************************************/
+
+package org.eclipse.corundum;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+
+/**
+ * Base class of the tasks that add version constraints to the clauses of a manifest header, such as
+ * Require-Bundle or Import-Package, based on the minimum and the target platform inventories. The
+ * subclasses determine the header, the version attribute and how a clause is resolved to a version.
+ * The task can also be nested in transform-manifests, which combines it with other transformers.
+ *
+ * @author <a href="konstantin@komissarchik.net">Konstantin Komissarchik</a>
+ */
+
+public abstract class AbstractVersionConstraintsTask extends AbstractTask implements ManifestTransformer
+{
+    private static final Rule DEFAULT_RULE = new Rule( "*", "[M1.M2.M3,T1+1.0.0)" );
+    
+    private final String header;
+    private final String attribute;
+    private final String kind;
+    private File minPlatformInventoryFile = null;
+    private File targetPlatformInventoryFile = null;
+    private File pluginsDirectory = null;
+    private boolean failIfVersionSpecified = true;
+    private boolean failOnUnknown;
+    private boolean collectErrors = false;
+    private int threads = BundleScanner.defaultThreads();
+    private String mode = ChangeSet.MODE_DIRECT;
+    private File changeSetFile = null;
+    private final ExcludeFilter excludes = new ExcludeFilter();
+    private final List<Rule> rules = new ArrayList<Rule>();
+    private Context context;
+    
+    /**
+     * @param header the name of the manifest header to process
+     * @param attribute the name of the attribute that holds the version constraint
+     * @param kind what the clauses refer to, such as bundle or package, for use in messages
+     * @param failOnUnknown the default for whether to fail if a clause cannot be resolved
+     */
+    
+    protected AbstractVersionConstraintsTask( final String header,
+                                              final String attribute,
+                                              final String kind,
+                                              final boolean failOnUnknown )
+    {
+        this.header = header;
+        this.attribute = attribute;
+        this.kind = kind;
+        this.failOnUnknown = failOnUnknown;
+    }
+    
+    public void setMinPlatformInventory( final File minPlatformInventory )
+    {
+        this.minPlatformInventoryFile = minPlatformInventory;
+    }
+    
+    public void setTargetPlatformInventory( final File targetPlatformInventory )
+    {
+        this.targetPlatformInventoryFile = targetPlatformInventory;
+    }
+    
+    public void setPluginsDirectory( final File pluginsDirectory )
+    {
+        this.pluginsDirectory = pluginsDirectory;
+    }
+    
+    public void setFailIfVersionSpecified( final boolean failIfVersionSpecified )
+    {
+        this.failIfVersionSpecified = failIfVersionSpecified;
+    }
+    
+    protected void setFailOnUnknown( final boolean failOnUnknown )
+    {
+        this.failOnUnknown = failOnUnknown;
+    }
+    
+    /**
+     * When set, a bundle that fails processing is skipped and the task fails once all other bundles
+     * have been processed, instead of stopping at the first failure.
+     */
+    
+    public void setCollectErrors( final boolean collectErrors )
+    {
+        this.collectErrors = collectErrors;
+    }
+    
+    public void setThreads( final int threads )
+    {
+        if( threads < 1 )
+        {
+            throw new BuildException( "The \"threads\" attribute must be a positive number." );
+        }
+        
+        this.threads = threads;
+    }
+    
+    /**
+     * Sets whether the manifests are changed right away ("direct"), the changes are only recorded in
+     * the change set ("plan") or the changes recorded in the change set are written ("apply").
+     */
+    
+    public void setMode( final String mode )
+    {
+        this.mode = ChangeSet.checkMode( mode );
+    }
+    
+    public void setChangeSet( final File changeSetFile )
+    {
+        this.changeSetFile = changeSetFile;
+    }
+    
+    public void setExcludes( final String excludes )
+    {
+        for( final String entry : excludes.split( ";" ) )
+        {
+            info( "Excluding " + entry );
+        }
+        
+        this.excludes.setIds( excludes );
+    }
+    
+    public ExcludeFilter.Entry createExclude()
+    {
+        return this.excludes.createExclude();
+    }
+    
+    public void addExcludeFilter( final ExcludeFilter filter )
+    {
+        this.excludes.addFilter( filter );
+    }
+    
+    public void setRules( final String rules )
+    {
+        this.rules.clear();
+        
+        for( final String entry : rules.split( ";" ) )
+        {
+            final String[] entryParts = entry.split( "=" );
+            
+            if( entryParts.length != 2 )
+            {
+                throw new BuildException();
+            }
+            
+            this.rules.add( new Rule( entryParts[ 0 ], entryParts[ 1 ] ) );
+        }
+    }
+    
+    public Rule createRule()
+    {
+        final Rule rule = new Rule();
+        this.rules.add( rule );
+        return rule;
+    }
+    
+    @Override
+    
+    public void execute() throws BuildException
+    {
+        final ManifestPipeline pipeline = new ManifestPipeline( this, this.pluginsDirectory );
+        
+        pipeline.add( this );
+        pipeline.setThreads( this.threads );
+        pipeline.setCollectErrors( this.collectErrors );
+        pipeline.setMode( this.mode );
+        pipeline.setChangeSet( this.changeSetFile );
+        pipeline.run();
+    }
+    
+    public Collection<String> getHeaders()
+    {
+        return Collections.singleton( this.header );
+    }
+    
+    public void init( final ManifestPipeline pipeline ) throws IOException
+    {
+        final BundleInventory minPlatformInventory = new BundleInventory();
+        minPlatformInventory.read( this.minPlatformInventoryFile );
+        minPlatformInventory.freeze();
+        
+        final BundleInventory targetPlatformInventory = new BundleInventory();
+        targetPlatformInventory.read( this.targetPlatformInventoryFile );
+        targetPlatformInventory.freeze();
+        
+        final Context context = new Context();
+        context.inventory = pipeline.getInventory();
+        context.minPlatformInventory = minPlatformInventory;
+        context.targetPlatformInventory = targetPlatformInventory;
+        context.rules = new RuleSet( this.rules );
+        
+        this.context = context;
+    }
+    
+    /**
+     * Returns the version that a clause resolves to in the specified inventory or null if the inventory
+     * has nothing that matches the clause.
+     */
+    
+    protected abstract BundleVersion getVersion( BundleInventory inventory, String name );
+    
+    /**
+     * Returns whether a clause is left as is, without adding a version constraint.
+     */
+    
+    protected boolean isIgnored( final ManifestClause clause )
+    {
+        return false;
+    }
+    
+    /**
+     * Returns the level at which a clause that cannot be resolved is reported, if that does not fail
+     * the task.
+     */
+    
+    protected int getUnknownMessageLevel()
+    {
+        return Project.MSG_ERR;
+    }
+    
+    /**
+     * Computes the version constraints of a bundle.
+     */
+    
+    public void transform( final BundleInfo bundle, final ManifestEditor manifest, final BundleLog log )
+    {
+        final String id = bundle.getId();
+        final Context context = this.context;
+        
+        if( this.excludes.isExcluded( id ) || this.excludes.isExcluded( bundle.getLocation() ) )
+        {
+            log.info( id + " : excluded" );
+            return;
+        }
+        
+        final String existingHeader = manifest.get( this.header );
+        
+        if( existingHeader == null )
+        {
+            log.info( id + " : no " + this.header + " found" );
+            return;
+        }
+        
+        log.info( id + " : processing..." );
+        
+        final ManifestHeader header = new ManifestHeader( existingHeader );
+        
+        for( ManifestClause clause : header.clauses() )
+        {
+            if( isIgnored( clause ) )
+            {
+                continue;
+            }
+            
+            if( clause.attribute( this.attribute ) != null )
+            {
+                final String message = "Manifest of bundle " + bundle.getId() + " contains " + this.kind + " version constraints!";
+                
+                if( this.failIfVersionSpecified )
+                {
+                    log.fail( message );
+                }
+                else
+                {
+                    log.error( message );
+                    continue;
+                }
+            }
+            
+            final String name = clause.path();
+            
+            String range = context.ranges.get( name );
+            
+            if( range == null )
+            {
+                BundleVersion minVersion;
+                BundleVersion targetVersion;
+                
+                final BundleVersion productVersion = getVersion( context.inventory, name );
+                
+                if( productVersion != null )
+                {
+                    minVersion = productVersion;
+                    targetVersion = productVersion;
+                }
+                else
+                {
+                    minVersion = getVersion( context.minPlatformInventory, name );
+                    
+                    if( minVersion == null )
+                    {
+                        final String message = "Minimum platform inventory does not contain " + this.kind + " " + name;
+                        
+                        if( this.failOnUnknown )
+                        {
+                            log.fail( message );
+                        }
+                        else
+                        {
+                            log.log( message, getUnknownMessageLevel() );
+                            continue;
+                        }
+                    }
+                    
+                    targetVersion = getVersion( context.targetPlatformInventory, name );
+                    
+                    if( targetVersion == null )
+                    {
+                        final String message = "Build platform inventory does not contain " + this.kind + " " + name;
+                        
+                        if( this.failOnUnknown )
+                        {
+                            log.fail( message );
+                        }
+                        else
+                        {
+                            log.log( message, getUnknownMessageLevel() );
+                            continue;
+                        }
+                    }
+                }
+                
+                final int minVersionLen = minVersion.length();
+                final int targetVersionLen = targetVersion.length();
+                
+                final long[] variables = new long[ RuleVariable.values().length ];
+                variables[ RuleVariable.M1.ordinal() ] = minVersion.segment( 0 );
+                variables[ RuleVariable.M2.ordinal() ] = minVersionLen > 1 ? minVersion.segment( 1 ) : 0;
+                variables[ RuleVariable.M3.ordinal() ] = minVersionLen > 2 ? minVersion.segment( 2 ) : 0;
+                variables[ RuleVariable.T1.ordinal() ] = targetVersion.segment( 0 );
+                variables[ RuleVariable.T2.ordinal() ] = targetVersionLen > 1 ? targetVersion.segment( 1 ) : 0;
+                variables[ RuleVariable.T3.ordinal() ] = targetVersionLen > 2 ? targetVersion.segment( 2 ) : 0;
+                
+                range = context.rules.match( name ).evaluate( variables );
+                context.ranges.put( name, range );
+            }
+            
+            clause.setAttribute( this.attribute, range );
+        }
+        
+        if( header.isModified() )
+        {
+            manifest.set( this.header, header.toString() );
+        }
+    }
+    
+    /**
+     * The state shared by the bundles that are processed concurrently. The inventories are frozen and
+     * the range computed for a clause only depends on them, so it is computed once for each bundle
+     * or package name.
+     */
+    
+    private static final class Context
+    {
+        private BundleInventory inventory;
+        private BundleInventory minPlatformInventory;
+        private BundleInventory targetPlatformInventory;
+        private RuleSet rules;
+        private final Map<String,String> ranges = new ConcurrentHashMap<String,String>();
+    }
+    
+    public enum RuleVariable
+    {
+        M1,
+        M2,
+        M3,
+        T1,
+        T2,
+        T3
+    }
+    
+    public static final class Rule
+    {
+        // Opcodes of the postfix programs that compute the version segments. Each instruction
+        // occupies two slots, the opcode and its operand.
+        
+        private static final long PUSH_LITERAL = 0;
+        private static final long PUSH_VARIABLE = 1;
+        private static final long ADD = 2;
+        private static final long SUBTRACT = 3;
+        
+        private String bundleId;
+        private Pattern bundleIdPattern;
+        private boolean startInclusive;
+        private long[][] startVersion;
+        private boolean endInclusive;
+        private long[][] endVersion;
+        
+        public Rule()
+        {
+        }
+        
+        public Rule( final String bundleId, final String expr )
+        {
+            setBundle( bundleId );
+            setExpr( expr );
+        }
+        
+        public String getBundle()
+        {
+            return this.bundleId;
+        }
+        
+        public void setBundle( final String bundleId )
+        {
+            this.bundleId = bundleId;
+            
+            final String bundleIdExpr = this.bundleId.replace( ".", "\\." ).replace( "*", ".*" );
+            this.bundleIdPattern = Pattern.compile( bundleIdExpr );
+        }
+        
+        public boolean matchBundleId( final String bundleId )
+        {
+            return ( this.bundleIdPattern.matcher( bundleId ).matches() );
+        }
+        
+        public void setExpr( final String expr )
+        {
+            if( expr.startsWith( "[" ) )
+            {
+                this.startInclusive = true;
+            }
+            else if( expr.startsWith( "(" ) )
+            {
+                this.startInclusive = false;
+            }
+            else
+            {
+                throw new IllegalArgumentException( expr );
+            }
+            
+            if( expr.endsWith( "]" ) )
+            {
+                this.endInclusive = true;
+            }
+            else if( expr.endsWith( ")" ) )
+            {
+                this.endInclusive = false;
+            }
+            else
+            {
+                throw new IllegalArgumentException( expr );
+            }
+            
+            final int comma = expr.indexOf( ',' );
+            
+            if( comma == -1 )
+            {
+                throw new IllegalArgumentException( expr );
+            }
+            
+            final String vStart = expr.substring( 1, comma );
+            final String vEnd = expr.substring( comma + 1, expr.length() - 1 );
+            
+            this.startVersion = compileVersion( vStart );
+            this.endVersion = compileVersion( vEnd );
+        }
+        
+        private static long[][] compileVersion( final String string )
+        {
+            final String[] segments = string.split( "\\." );
+            final long[][] programs = new long[ segments.length ][];
+            
+            for( int i = 0; i < segments.length; i++ )
+            {
+                final List<Long> program = new ArrayList<Long>();
+                
+                compileSegment( segments[ i ], program );
+                
+                programs[ i ] = new long[ program.size() ];
+                
+                for( int j = 0; j < programs[ i ].length; j++ )
+                {
+                    programs[ i ][ j ] = program.get( j );
+                }
+            }
+            
+            return programs;
+        }
+        
+        private static void compileSegment( final String string, final List<Long> program )
+        {
+            if( string.indexOf( '+' ) != -1 )
+            {
+                final int operand = string.indexOf( '+' );
+                compileSegment( string.substring( 0, operand ).trim(), program );
+                compileSegment( string.substring( operand + 1 ).trim(), program );
+                program.add( ADD );
+                program.add( 0L );
+            }
+            else if( string.indexOf( '-' ) != -1 )
+            {
+                final int operand = string.indexOf( '-' );
+                compileSegment( string.substring( 0, operand ).trim(), program );
+                compileSegment( string.substring( operand + 1 ).trim(), program );
+                program.add( SUBTRACT );
+                program.add( 0L );
+            }
+            else
+            {
+                RuleVariable variable = null;
+                
+                try
+                {
+                    variable = RuleVariable.valueOf( string );
+                }
+                catch( IllegalArgumentException e ) {}
+                
+                if( variable == null )
+                {
+                    program.add( PUSH_LITERAL );
+                    program.add( Long.parseLong( string ) );
+                }
+                else
+                {
+                    program.add( PUSH_VARIABLE );
+                    program.add( (long) variable.ordinal() );
+                }
+            }
+        }
+        
+        public String evaluate( final Map<RuleVariable,Long> substitutions )
+        {
+            final long[] variables = new long[ RuleVariable.values().length ];
+            
+            for( Map.Entry<RuleVariable,Long> entry : substitutions.entrySet() )
+            {
+                variables[ entry.getKey().ordinal() ] = entry.getValue();
+            }
+            
+            return evaluate( variables );
+        }
+        
+        /**
+         * Evaluates the version range for the specified variable values, indexed by the ordinal of the
+         * rule variable.
+         */
+        
+        public String evaluate( final long[] variables )
+        {
+            final StringBuilder buf = new StringBuilder( 32 );
+            final long[] stack = new long[ 16 ];
+            
+            buf.append( this.startInclusive ? '[' : '(' );
+            
+            for( int i = 0; i < this.startVersion.length; i++ )
+            {
+                if( i > 0 )
+                {
+                    buf.append( '.' );
+                }
+                
+                buf.append( execute( this.startVersion[ i ], variables, stack ) );
+            }
+            
+            buf.append( ',' );
+            
+            for( int i = 0; i < this.endVersion.length; i++ )
+            {
+                if( i > 0 )
+                {
+                    buf.append( '.' );
+                }
+                
+                buf.append( execute( this.endVersion[ i ], variables, stack ) );
+            }
+            
+            buf.append( this.endInclusive ? ']' : ')' );
+            
+            return buf.toString();
+        }
+        
+        private static long execute( final long[] program, final long[] variables, long[] stack )
+        {
+            int top = 0;
+            
+            for( int pc = 0; pc < program.length; pc += 2 )
+            {
+                if( top + 1 > stack.length )
+                {
+                    stack = Arrays.copyOf( stack, stack.length * 2 );
+                }
+                
+                final long opcode = program[ pc ];
+                
+                if( opcode == PUSH_LITERAL )
+                {
+                    stack[ top++ ] = program[ pc + 1 ];
+                }
+                else if( opcode == PUSH_VARIABLE )
+                {
+                    stack[ top++ ] = variables[ (int) program[ pc + 1 ] ];
+                }
+                else if( opcode == ADD )
+                {
+                    top--;
+                    stack[ top - 1 ] += stack[ top ];
+                }
+                else
+                {
+                    top--;
+                    stack[ top - 1 ] -= stack[ top ];
+                }
+            }
+            
+            return stack[ 0 ];
+        }
+    }
+    
+    /**
+     * Rules compiled for matching bundle ids or package names. Rules without wildcards are looked up in a hash map and
+     * rules with a single trailing wildcard in a prefix trie. Any other rules are matched with their
+     * regular expression, but only if they come before the best match found so far. As with a linear
+     * scan, the first matching rule wins.
+     */
+    
+    private static final class RuleSet
+    {
+        private final Rule[] rules;
+        private final Map<String,Integer> literals = new HashMap<String,Integer>();
+        private final TrieNode prefixes = new TrieNode();
+        private final List<Integer> others = new ArrayList<Integer>();
+        
+        public RuleSet( final List<Rule> rules )
+        {
+            this.rules = rules.toArray( new Rule[ rules.size() ] );
+            
+            for( int i = 0; i < this.rules.length; i++ )
+            {
+                final String pattern = this.rules[ i ].getBundle();
+                final int star = pattern.indexOf( '*' );
+                
+                if( ! isLiteral( pattern, star == pattern.length() - 1 ? star : pattern.length() ) )
+                {
+                    this.others.add( i );
+                }
+                else if( star == -1 )
+                {
+                    if( ! this.literals.containsKey( pattern ) )
+                    {
+                        this.literals.put( pattern, i );
+                    }
+                }
+                else
+                {
+                    TrieNode node = this.prefixes;
+                    
+                    for( int j = 0; j < star; j++ )
+                    {
+                        node = node.add( pattern.charAt( j ) );
+                    }
+                    
+                    node.rule = Math.min( node.rule, i );
+                }
+            }
+        }
+        
+        private static boolean isLiteral( final String pattern, final int end )
+        {
+            for( int i = 0; i < end; i++ )
+            {
+                final char ch = pattern.charAt( i );
+                
+                if( ! ( Character.isLetterOrDigit( ch ) || ch == '.' || ch == '_' || ch == '-' ) )
+                {
+                    return false;
+                }
+            }
+            
+            return true;
+        }
+        
+        public Rule match( final String bundleId )
+        {
+            final Integer literal = this.literals.get( bundleId );
+            int best = ( literal == null ? Integer.MAX_VALUE : literal );
+            TrieNode node = this.prefixes;
+            
+            for( int i = 0, n = bundleId.length(); node != null; i++ )
+            {
+                best = Math.min( best, node.rule );
+                node = ( i < n ? node.get( bundleId.charAt( i ) ) : null );
+            }
+            
+            for( int i : this.others )
+            {
+                if( i > best )
+                {
+                    break;
+                }
+                
+                if( this.rules[ i ].matchBundleId( bundleId ) )
+                {
+                    best = i;
+                    break;
+                }
+            }
+            
+            return ( best == Integer.MAX_VALUE ? DEFAULT_RULE : this.rules[ best ] );
+        }
+    }
+    
+    private static final class TrieNode
+    {
+        private char[] keys = new char[ 0 ];
+        private TrieNode[] children = new TrieNode[ 0 ];
+        private int rule = Integer.MAX_VALUE;
+        
+        public TrieNode get( final char key )
+        {
+            for( int i = 0; i < this.keys.length; i++ )
+            {
+                if( this.keys[ i ] == key )
+                {
+                    return this.children[ i ];
+                }
+            }
+            
+            return null;
+        }
+        
+        public TrieNode add( final char key )
+        {
+            TrieNode child = get( key );
+            
+            if( child == null )
+            {
+                child = new TrieNode();
+                
+                this.keys = Arrays.copyOf( this.keys, this.keys.length + 1 );
+                this.keys[ this.keys.length - 1 ] = key;
+                this.children = Arrays.copyOf( this.children, this.children.length + 1 );
+                this.children[ this.children.length - 1 ] = child;
+            }
+            
+            return child;
+        }
+    }
+    
+}
@@ -13,6 +13,10 @@ package org.eclipse.corundum;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.tools.ant.BuildException;
@@ -25,12 +29,22 @@ public final class BundleInfo
 {
     private static final String BUNDLE_SYMBOLIC_NAME = "Bundle-SymbolicName";
     private static final String BUNDLE_VERSION = "Bundle-Version";
+    private static final String EXPORT_PACKAGE = "Export-Package";
+    private static final List<String> HEADERS = Arrays.asList( BUNDLE_SYMBOLIC_NAME, BUNDLE_VERSION, EXPORT_PACKAGE );
+    private static final BundleVersion DEFAULT_PACKAGE_VERSION = new BundleVersion( 0, 0, 0 );
     
     private final File location;
     private final String id;
     private final BundleVersion version;
+    private final Map<String,BundleVersion> exports;
     
     public BundleInfo( final File location ) throws Exception
+    {
+        this( location, (ManifestCache) null );
+    }
+    
+    public BundleInfo( final File location,
+                       final ManifestCache cache ) throws Exception
     {
         this.location = location;
         
@@ -38,7 +52,14 @@ public final class BundleInfo
         
         try
         {
-            manifest = ManifestUtil.readManifest( this.location );
+            if( cache == null )
+            {
+                manifest = ManifestUtil.readManifestEntries( this.location, HEADERS );
+            }
+            else
+            {
+                manifest = cache.read( this.location );
+            }
         }
         catch( IOException e )
         {
@@ -47,7 +68,6 @@ public final class BundleInfo
         
         String bundleId = manifest.get( BUNDLE_SYMBOLIC_NAME );
         if( bundleId == null ){
-        	System.out.println("WARNING: Bundle " + location.getName() + " does not have a valid id!");
         	throw new Exception("Missing Bundle-SymbolicName in plugin manifest.mf file: " + location.getName() );
         }
         
@@ -62,18 +82,99 @@ public final class BundleInfo
         
         final String vstr = manifest.get( BUNDLE_VERSION );
         if( vstr == null ){
-        	System.out.println("WARNING: Bundle "+ location.getName() + " version is null " );
         	throw new Exception("Missing Bundle-Version in plugin manifest.mf file: " + location.getName() );
         }
         this.version = new BundleVersion( vstr );
+        this.exports = parseExports( manifest.get( EXPORT_PACKAGE ) );
     }
     
     public BundleInfo( final String id,
                        final BundleVersion version )
     {
-        this.location = null;
+        this( null, id, version );
+    }
+    
+    public BundleInfo( final File location,
+                       final String id,
+                       final BundleVersion version )
+    {
+        this( location, id, version, null );
+    }
+    
+    public BundleInfo( final File location,
+                       final String id,
+                       final BundleVersion version,
+                       final Map<String,BundleVersion> exports )
+    {
+        this.location = location;
         this.id = id;
         this.version = version;
+        
+        if( exports == null || exports.isEmpty() )
+        {
+            this.exports = Collections.emptyMap();
+        }
+        else
+        {
+            this.exports = Collections.unmodifiableMap( new LinkedHashMap<String,BundleVersion>( exports ) );
+        }
+    }
+    
+    /**
+     * Parses an Export-Package header into a map of package names to package versions. Packages
+     * without a version are exported at version 0.0.0. If a package is exported more than once, the
+     * first export wins. Exports with a version that cannot be parsed are ignored.
+     */
+    
+    public static Map<String,BundleVersion> parseExports( final String exportPackage )
+    {
+        if( exportPackage == null )
+        {
+            return Collections.emptyMap();
+        }
+        
+        final Map<String,BundleVersion> exports = new LinkedHashMap<String,BundleVersion>();
+        
+        for( ManifestClause clause : ManifestHeaderTokenizer.tokenize( exportPackage ) )
+        {
+            ManifestClause.Attribute attribute = clause.attribute( "version" );
+            
+            if( attribute == null )
+            {
+                attribute = clause.attribute( "specification-version" );
+            }
+            
+            BundleVersion version = DEFAULT_PACKAGE_VERSION;
+            
+            if( attribute != null )
+            {
+                try
+                {
+                    version = new BundleVersion( attribute.value() );
+                }
+                catch( IllegalArgumentException e )
+                {
+                    continue;
+                }
+            }
+            
+            for( String path : clause.paths() )
+            {
+                addExport( exports, path, version );
+            }
+        }
+        
+        return exports;
+    }
+    
+    private static void addExport( final Map<String,BundleVersion> exports,
+                                   final String packageName,
+                                   final BundleVersion version )
+    {
+        if( ! exports.containsKey( packageName ) )
+        {
+            exports.put( packageName, version );
+        }
     }
     
     public static boolean isValidBundle( final File location )
@@ -96,5 +197,14 @@ public final class BundleInfo
     {
         return this.version;
     }
+    
+    /**
+     * Returns the packages exported by the bundle, mapped to their versions.
+     */
+    
+    public Map<String,BundleVersion> getExportedPackages()
+    {
+        return this.exports;
+    }
 }
 
@@ -17,7 +17,13 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
@@ -47,32 +53,207 @@ public final class BundleInventory
     };
 
     private final SortedSet<BundleInfo> bundles = new TreeSet<BundleInfo>( BUNDLE_COMPARATOR );
+    private final Map<String,BundleVersions> index = new HashMap<String,BundleVersions>();
+    private final Map<String,PackageVersions> packages = new HashMap<String,PackageVersions>();
+    private MappedBundleInventory mapped;
+    private boolean frozen;
     
     public Set<BundleInfo> getBundles()
     {
-        return this.bundles;
+        materialize();
+        
+        return ( this.frozen ? Collections.unmodifiableSortedSet( this.bundles ) : this.bundles );
     }
     
     public BundleInfo getBundle( final String bundleId )
     {
-        for( BundleInfo bundle : this.bundles )
+        return getLowestBundle( bundleId );
+    }
+    
+    public BundleInfo getBundle( final String bundleId,
+                                 final BundleVersion version )
+    {
+        if( this.mapped != null )
         {
-            if( bundle.getId().equals( bundleId ) )
+            for( BundleInfo bundle : this.mapped.list( bundleId ) )
             {
-                return bundle;
+                if( bundle.getVersion().compareTo( version ) == 0 )
+                {
+                    return bundle;
+                }
             }
+            
+            return null;
+        }
+        
+        final BundleVersions versions = this.index.get( bundleId );
+        return ( versions == null ? null : versions.find( version ) );
+    }
+    
+    public BundleInfo getLowestBundle( final String bundleId )
+    {
+        if( this.mapped != null )
+        {
+            return this.mapped.lowest( bundleId );
+        }
+        
+        final BundleVersions versions = this.index.get( bundleId );
+        return ( versions == null ? null : versions.lowest() );
+    }
+    
+    public BundleInfo getHighestBundle( final String bundleId )
+    {
+        if( this.mapped != null )
+        {
+            return this.mapped.highest( bundleId );
+        }
+        
+        final BundleVersions versions = this.index.get( bundleId );
+        return ( versions == null ? null : versions.highest() );
+    }
+    
+    public List<BundleInfo> getBundles( final String bundleId )
+    {
+        if( this.mapped != null )
+        {
+            return Collections.unmodifiableList( this.mapped.list( bundleId ) );
+        }
+        
+        final BundleVersions versions = this.index.get( bundleId );
+        return ( versions == null ? Collections.<BundleInfo>emptyList() : versions.list() );
+    }
+    
+    public boolean contains( final String bundleId )
+    {
+        if( this.mapped != null )
+        {
+            return this.mapped.contains( bundleId );
+        }
+        
+        return this.index.containsKey( bundleId );
+    }
+    
+    /**
+     * Returns the lowest version at which a package is exported by the bundles of this inventory or
+     * null if no bundle exports the package.
+     */
+    
+    public BundleVersion getPackageVersion( final String packageName )
+    {
+        if( this.mapped != null )
+        {
+            return this.mapped.lowestPackageVersion( packageName );
+        }
+        
+        final PackageVersions versions = this.packages.get( packageName );
+        return ( versions == null ? null : versions.versions[ 0 ] );
+    }
+    
+    /**
+     * Returns the versions at which a package is exported by the bundles of this inventory, sorted
+     * from lowest to highest.
+     */
+    
+    public List<BundleVersion> getPackageVersions( final String packageName )
+    {
+        if( this.mapped != null )
+        {
+            return Collections.unmodifiableList( this.mapped.packageVersions( packageName ) );
+        }
+        
+        final PackageVersions versions = this.packages.get( packageName );
+        return ( versions == null ? Collections.<BundleVersion>emptyList() : versions.list() );
+    }
+    
+    public int size()
+    {
+        if( this.mapped != null )
+        {
+            return this.mapped.size();
         }
         
-        return null;
+        return this.bundles.size();
     }
     
     public void addBundle( final BundleInfo bundle )
     {
-        this.bundles.add( bundle );
+        checkNotFrozen();
+        materialize();
+        
+        if( this.bundles.add( bundle ) )
+        {
+            final String id = bundle.getId();
+            BundleVersions versions = this.index.get( id );
+            
+            if( versions == null )
+            {
+                versions = new BundleVersions();
+                this.index.put( id, versions );
+            }
+            
+            versions.add( bundle );
+            
+            for( Map.Entry<String,BundleVersion> export : bundle.getExportedPackages().entrySet() )
+            {
+                PackageVersions packageVersions = this.packages.get( export.getKey() );
+                
+                if( packageVersions == null )
+                {
+                    packageVersions = new PackageVersions();
+                    this.packages.put( export.getKey(), packageVersions );
+                }
+                
+                packageVersions.add( export.getValue() );
+            }
+        }
+    }
+    
+    /**
+     * Makes this inventory read-only. Subsequent attempts to modify it fail with IllegalStateException.
+     */
+    
+    public BundleInventory freeze()
+    {
+        this.frozen = true;
+        return this;
+    }
+    
+    public boolean isFrozen()
+    {
+        return this.frozen;
+    }
+    
+    private void materialize()
+    {
+        if( this.mapped != null )
+        {
+            final MappedBundleInventory mapped = this.mapped;
+            final boolean frozen = this.frozen;
+            
+            this.mapped = null;
+            this.frozen = false;
+            
+            for( BundleInfo bundle : mapped.list() )
+            {
+                addBundle( bundle );
+            }
+            
+            this.frozen = frozen;
+        }
+    }
+    
+    private void checkNotFrozen()
+    {
+        if( this.frozen )
+        {
+            throw new IllegalStateException( "Inventory is frozen." );
+        }
     }
     
     public void write( final File f ) throws IOException 
     {
+        materialize();
+        
         try( BufferedWriter w = new BufferedWriter( new FileWriter( f ) ) )
         {
             for( BundleInfo bundle : this.bundles )
@@ -81,26 +262,201 @@ public final class BundleInventory
                 w.write( " : " );
                 w.write( bundle.getVersion().toString() );
                 w.write( NL );
+                
+                // Exported packages follow the bundle on indented lines.
+                
+                for( Map.Entry<String,BundleVersion> export : bundle.getExportedPackages().entrySet() )
+                {
+                    w.write( "  " );
+                    w.write( export.getKey() );
+                    w.write( " : " );
+                    w.write( export.getValue().toString() );
+                    w.write( NL );
+                }
             }
             
             w.flush();
         }
     }
     
+    public void writeBinary( final File f ) throws IOException
+    {
+        materialize();
+        
+        MappedBundleInventory.write( f, this.bundles );
+    }
+    
+    /**
+     * Reads the inventory from a file in either the text or the binary format. A binary inventory is
+     * memory-mapped and its bundles are only decoded as they are looked up.
+     */
+    
     public void read( final File f ) throws IOException
     {
+        checkNotFrozen();
+        
         this.bundles.clear();
+        this.index.clear();
+        this.packages.clear();
+        this.mapped = null;
+        
+        if( MappedBundleInventory.isBinary( f ) )
+        {
+            this.mapped = MappedBundleInventory.map( f );
+            return;
+        }
         
         try( BufferedReader r = new BufferedReader( new FileReader( f ) ) )
         {
+            String id = null;
+            BundleVersion version = null;
+            final Map<String,BundleVersion> exports = new LinkedHashMap<String,BundleVersion>();
+            
             for( String line = r.readLine(); line != null; line = r.readLine() )
             {
+                if( line.trim().length() == 0 )
+                {
+                    continue;
+                }
+                
                 final String[] segments = line.split( ":" );
-                final String id = segments[ 0 ].trim();
-                final BundleVersion version = new BundleVersion( segments[ 1 ] );
                 
-                this.bundles.add( new BundleInfo( id, version ) );
+                if( Character.isWhitespace( line.charAt( 0 ) ) )
+                {
+                    if( id != null )
+                    {
+                        exports.put( segments[ 0 ].trim(), new BundleVersion( segments[ 1 ].trim() ) );
+                    }
+                }
+                else
+                {
+                    if( id != null )
+                    {
+                        addBundle( new BundleInfo( null, id, version, exports ) );
+                        exports.clear();
+                    }
+                    
+                    id = segments[ 0 ].trim();
+                    version = new BundleVersion( segments[ 1 ] );
+                }
             }
+            
+            if( id != null )
+            {
+                addBundle( new BundleInfo( null, id, version, exports ) );
+            }
+        }
+    }
+    
+    /**
+     * Versions of a single bundle, sorted from lowest to highest. Typically there is only one.
+     */
+    
+    private static final class BundleVersions
+    {
+        private BundleInfo[] bundles = new BundleInfo[ 1 ];
+        private int size;
+        
+        public void add( final BundleInfo bundle )
+        {
+            final BundleVersion version = bundle.getVersion();
+            int position = this.size;
+            
+            while( position > 0 && this.bundles[ position - 1 ].getVersion().compareTo( version ) > 0 )
+            {
+                position--;
+            }
+            
+            if( this.size == this.bundles.length )
+            {
+                final BundleInfo[] expanded = new BundleInfo[ this.size * 2 ];
+                System.arraycopy( this.bundles, 0, expanded, 0, this.size );
+                this.bundles = expanded;
+            }
+            
+            System.arraycopy( this.bundles, position, this.bundles, position + 1, this.size - position );
+            this.bundles[ position ] = bundle;
+            this.size++;
+        }
+        
+        public BundleInfo lowest()
+        {
+            return this.bundles[ 0 ];
+        }
+        
+        public BundleInfo highest()
+        {
+            return this.bundles[ this.size - 1 ];
+        }
+        
+        public BundleInfo find( final BundleVersion version )
+        {
+            for( int i = 0; i < this.size; i++ )
+            {
+                final BundleInfo bundle = this.bundles[ i ];
+                
+                if( bundle.getVersion().compareTo( version ) == 0 )
+                {
+                    return bundle;
+                }
+            }
+            
+            return null;
+        }
+        
+        public List<BundleInfo> list()
+        {
+            final List<BundleInfo> list = new ArrayList<BundleInfo>( this.size );
+            
+            for( int i = 0; i < this.size; i++ )
+            {
+                list.add( this.bundles[ i ] );
+            }
+            
+            return Collections.unmodifiableList( list );
+        }
+    }
+    
+    /**
+     * Versions at which a single package is exported, sorted from lowest to highest.
+     */
+    
+    private static final class PackageVersions
+    {
+        private BundleVersion[] versions = new BundleVersion[ 1 ];
+        private int size;
+        
+        public void add( final BundleVersion version )
+        {
+            int position = this.size;
+            
+            while( position > 0 && this.versions[ position - 1 ].compareTo( version ) > 0 )
+            {
+                position--;
+            }
+            
+            if( this.size == this.versions.length )
+            {
+                final BundleVersion[] expanded = new BundleVersion[ this.size * 2 ];
+                System.arraycopy( this.versions, 0, expanded, 0, this.size );
+                this.versions = expanded;
+            }
+            
+            System.arraycopy( this.versions, position, this.versions, position + 1, this.size - position );
+            this.versions[ position ] = version;
+            this.size++;
+        }
+        
+        public List<BundleVersion> list()
+        {
+            final List<BundleVersion> list = new ArrayList<BundleVersion>( this.size );
+            
+            for( int i = 0; i < this.size; i++ )
+            {
+                list.add( this.versions[ i ] );
+            }
+            
+            return Collections.unmodifiableList( list );
         }
     }
 
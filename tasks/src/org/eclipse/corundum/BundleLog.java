@@ -0,0 +1,87 @@
+/******************************************************************************
+ * Copyright (c) 2016 Oracle
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Konstantin Komissarchik - initial implementation and ongoing maintenance
+ ******************************************************************************/
+
+package org.eclipse.corundum;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.tools.ant.Project;
+
+/**
+ * The log of a single bundle that is processed concurrently with other bundles. Messages are held
+ * until they can be written in bundle order.
+ *
+ * @author <a href="konstantin@komissarchik.net">Konstantin Komissarchik</a>
+ */
+
+public final class BundleLog
+{
+    private final List<String> messages = new ArrayList<String>();
+    private final List<Integer> levels = new ArrayList<Integer>();
+    private boolean failed;
+    
+    public void info( final String message )
+    {
+        log( message, Project.MSG_INFO );
+    }
+    
+    public void warning( final String message )
+    {
+        log( message, Project.MSG_WARN );
+    }
+    
+    public void error( final String message )
+    {
+        log( message, Project.MSG_ERR );
+    }
+    
+    public void log( final String message, final int level )
+    {
+        this.messages.add( message );
+        this.levels.add( level );
+    }
+    
+    /**
+     * Logs an error and stops processing the bundle.
+     */
+    
+    public void fail( final String message )
+    {
+        error( message );
+        throw new Failure();
+    }
+    
+    public boolean isFailed()
+    {
+        return this.failed;
+    }
+    
+    void setFailed()
+    {
+        this.failed = true;
+    }
+    
+    public void flush( final AbstractTask task )
+    {
+        for( int i = 0, n = this.messages.size(); i < n; i++ )
+        {
+            task.log( this.messages.get( i ), this.levels.get( i ) );
+        }
+    }
+    
+    @SuppressWarnings( "serial" )
+    
+    static final class Failure extends RuntimeException
+    {
+    }
+    
+}
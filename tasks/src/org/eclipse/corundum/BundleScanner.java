@@ -0,0 +1,158 @@
+/******************************************************************************
+ * Copyright (c) 2016 Oracle
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Konstantin Komissarchik - initial implementation and ongoing maintenance
+ ******************************************************************************/
+
+package org.eclipse.corundum;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Reads the manifests of a list of bundles, optionally using several threads. Results are always
+ * returned in the order of the input list, so that callers produce the same inventory and the same
+ * messages regardless of the number of threads.
+ *
+ * @author <a href="konstantin@komissarchik.net">Konstantin Komissarchik</a>
+ */
+
+public final class BundleScanner
+{
+    private final int threads;
+    private final ManifestCache cache;
+    
+    public BundleScanner( final int threads )
+    {
+        this( threads, null );
+    }
+    
+    public BundleScanner( final int threads,
+                          final ManifestCache cache )
+    {
+        if( threads < 1 )
+        {
+            throw new IllegalArgumentException();
+        }
+        
+        this.threads = threads;
+        this.cache = cache;
+    }
+    
+    public static int defaultThreads()
+    {
+        return Runtime.getRuntime().availableProcessors();
+    }
+    
+    public List<Result> scan( final List<File> locations )
+    {
+        final List<Result> results = new ArrayList<Result>( locations.size() );
+        
+        if( this.threads == 1 || locations.size() < 2 )
+        {
+            for( File location : locations )
+            {
+                results.add( read( location ) );
+            }
+            
+            return results;
+        }
+        
+        final ExecutorService executor = Executors.newFixedThreadPool( Math.min( this.threads, locations.size() ) );
+        
+        try
+        {
+            final List<Future<Result>> futures = new ArrayList<Future<Result>>( locations.size() );
+            
+            for( final File location : locations )
+            {
+                futures.add
+                (
+                    executor.submit
+                    (
+                        new Callable<Result>()
+                        {
+                            public Result call()
+                            {
+                                return read( location );
+                            }
+                        }
+                    )
+                );
+            }
+            
+            for( Future<Result> future : futures )
+            {
+                results.add( future.get() );
+            }
+        }
+        catch( final InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException( e );
+        }
+        catch( final ExecutionException e )
+        {
+            throw new IllegalStateException( e.getCause() );
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+        
+        return results;
+    }
+    
+    private Result read( final File location )
+    {
+        try
+        {
+            return new Result( location, new BundleInfo( location, this.cache ), null );
+        }
+        catch( final Exception e )
+        {
+            return new Result( location, null, e );
+        }
+    }
+    
+    public static final class Result
+    {
+        private final File location;
+        private final BundleInfo bundle;
+        private final Exception exception;
+        
+        private Result( final File location, final BundleInfo bundle, final Exception exception )
+        {
+            this.location = location;
+            this.bundle = bundle;
+            this.exception = exception;
+        }
+        
+        public File getLocation()
+        {
+            return this.location;
+        }
+        
+        public BundleInfo getBundle()
+        {
+            return this.bundle;
+        }
+        
+        public Exception getException()
+        {
+            return this.exception;
+        }
+    }
+    
+}
@@ -11,82 +11,296 @@
 
 package org.eclipse.corundum;
 
-import static java.lang.Math.min;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
+ * Version of a bundle, consisting of up to three numeric segments and an optional qualifier.
+ *
+ * <p>The numeric segments and the number of segments are packed into a single long, so that versions
+ * can be compared with a single long comparison. Segments that do not fit into the packed form
+ * are kept in an array instead. Qualifiers are interned in a table of bounded size, which is only an
+ * optimization, as versions are compared by value. A trailing separator is ignored, so "1.2." is the
+ * same as "1.2".</p>
+ *
  * @author <a href="konstantin@komissarchik.net">Konstantin Komissarchik</a>
  */
 
 public final class BundleVersion implements Comparable<BundleVersion>
 {
-    private static final String SEPARATOR = ".";
-    private static final String SEPARATOR_REGEX = "\\.";
+    private static final char SEPARATOR = '.';
+    
+    private static final int MAX_SEGMENTS = 3;
+    private static final int SEGMENT_BITS = 20;
+    private static final long SEGMENT_MASK = ( 1L << SEGMENT_BITS ) - 1;
+    private static final int LENGTH_BITS = 2;
+    private static final long LENGTH_MASK = ( 1L << LENGTH_BITS ) - 1;
+    
+    // The table of qualifiers is cleared when it becomes full, so that it does not grow without bound
+    // in a long-lived process that runs many builds.
     
-    private long[] segments = null;
+    private static final int MAX_QUALIFIERS = 4096;
+    private static final ConcurrentMap<String,String> QUALIFIERS = new ConcurrentHashMap<String,String>();
+    
+    private final long packed;
+    private final long[] wide;
+    private final String qualifier;
 
     public BundleVersion( final long... segments )
     {
-        this.segments = segments;
+        this( segments, null );
     }
 
-    public BundleVersion( final String version ) 
+    public BundleVersion( final String version )
     {
     	if( version == null ){
         	System.out.println("WARNING: Bundle veriosn is null");
-        	segments = new long[]{1L, 0L, 0L};
+        	this.packed = pack( 3, 1L, 0L, 0L );
+        	this.wide = null;
+        	this.qualifier = null;
     		return;
     	}
-        final String trimmed = version.trim();
         
-        final String[] stringSegments = trimmed.split( SEPARATOR_REGEX );
-        final int length = Math.min( stringSegments.length, 3 );
-        this.segments = new long[ length ];
+        final int length = version.length();
+        int start = 0;
+        int end = length;
+        
+        while( start < end && version.charAt( start ) <= ' ' )
+        {
+            start++;
+        }
         
-        for( int i = 0; i < length; i++ )
+        while( end > start && version.charAt( end - 1 ) <= ' ' )
         {
-            this.segments[ i ] = Long.parseLong( stringSegments[ i ] );
+            end--;
         }
+        
+        long s0 = 0, s1 = 0, s2 = 0;
+        int count = 0;
+        int position = start;
+        
+        while( count < MAX_SEGMENTS )
+        {
+            if( position == end && count > 0 )
+            {
+                break; // trailing separator
+            }
+            
+            long segment = 0;
+            final int segmentStart = position;
+            
+            while( position < end )
+            {
+                final char ch = version.charAt( position );
+                
+                if( ch >= '0' && ch <= '9' )
+                {
+                    final int digit = ch - '0';
+                    
+                    if( segment > ( Long.MAX_VALUE - digit ) / 10 )
+                    {
+                        throw new IllegalArgumentException( version );
+                    }
+                    
+                    segment = segment * 10 + digit;
+                    
+                    position++;
+                }
+                else if( ch == SEPARATOR )
+                {
+                    break;
+                }
+                else
+                {
+                    throw new IllegalArgumentException( version );
+                }
+            }
+            
+            if( position == segmentStart )
+            {
+                throw new IllegalArgumentException( version );
+            }
+            
+            switch( count++ )
+            {
+                case 0: s0 = segment; break;
+                case 1: s1 = segment; break;
+                default: s2 = segment;
+            }
+            
+            if( position == end )
+            {
+                break;
+            }
+            
+            position++; // separator
+        }
+        
+        this.qualifier = ( position < end ? intern( version.substring( position, end ) ) : null );
+        
+        if( fits( s0 ) && fits( s1 ) && fits( s2 ) )
+        {
+            this.packed = pack( count, s0, s1, s2 );
+            this.wide = null;
+        }
+        else
+        {
+            final long[] segments = new long[ count ];
+            
+            for( int i = 0; i < count; i++ )
+            {
+                segments[ i ] = ( i == 0 ? s0 : ( i == 1 ? s1 : s2 ) );
+            }
+            
+            this.packed = 0;
+            this.wide = segments;
+        }
+    }
+    
+    private BundleVersion( final long[] segments, final String qualifier )
+    {
+        final int length = segments.length;
+        
+        if( length == 0 || length > MAX_SEGMENTS )
+        {
+            throw new IllegalArgumentException();
+        }
+        
+        final long s0 = segments[ 0 ];
+        final long s1 = ( length > 1 ? segments[ 1 ] : 0 );
+        final long s2 = ( length > 2 ? segments[ 2 ] : 0 );
+        
+        if( s0 < 0 || s1 < 0 || s2 < 0 )
+        {
+            throw new IllegalArgumentException();
+        }
+        
+        if( fits( s0 ) && fits( s1 ) && fits( s2 ) )
+        {
+            this.packed = pack( length, s0, s1, s2 );
+            this.wide = null;
+        }
+        else
+        {
+            this.packed = 0;
+            this.wide = segments.clone();
+        }
+        
+        this.qualifier = ( qualifier == null || qualifier.length() == 0 ? null : intern( qualifier ) );
+    }
+    
+    private static boolean fits( final long segment )
+    {
+        return ( segment & ~SEGMENT_MASK ) == 0;
+    }
+    
+    private static long pack( final int length, final long s0, final long s1, final long s2 )
+    {
+        return ( s0 << ( LENGTH_BITS + 2 * SEGMENT_BITS ) ) |
+               ( s1 << ( LENGTH_BITS + SEGMENT_BITS ) ) |
+               ( s2 << LENGTH_BITS ) |
+               ( length - 1 );
+    }
+    
+    private static String intern( final String qualifier )
+    {
+        if( QUALIFIERS.size() >= MAX_QUALIFIERS )
+        {
+            QUALIFIERS.clear();
+        }
+        
+        final String existing = QUALIFIERS.putIfAbsent( qualifier, qualifier );
+        return ( existing == null ? qualifier : existing );
+    }
+    
+    /**
+     * Returns a version with the same segments as this version and the specified qualifier.
+     */
+    
+    public BundleVersion withQualifier( final String qualifier )
+    {
+        final long[] segments = new long[ length() ];
+        
+        for( int i = 0; i < segments.length; i++ )
+        {
+            segments[ i ] = segment( i );
+        }
+        
+        return new BundleVersion( segments, qualifier );
     }
     
     public int length()
     {
-        return this.segments.length;
+        return ( this.wide == null ? (int) ( this.packed & LENGTH_MASK ) + 1 : this.wide.length );
     }
     
     public long segment( final int position )
     {
-        return this.segments[ position ];
+        if( this.wide != null )
+        {
+            return this.wide[ position ];
+        }
+        
+        if( position < 0 || position >= length() )
+        {
+            throw new ArrayIndexOutOfBoundsException( position );
+        }
+        
+        return ( this.packed >>> ( LENGTH_BITS + ( MAX_SEGMENTS - 1 - position ) * SEGMENT_BITS ) ) & SEGMENT_MASK;
+    }
+    
+    public String getQualifier()
+    {
+        return this.qualifier;
     }
     
     @Override
-    public String toString() 
+    public String toString()
     {
         final StringBuilder buf = new StringBuilder();
         
-        for( long segment : this.segments )
+        for( int i = 0, n = length(); i < n; i++ )
         {
-            if( buf.length() > 0 ) buf.append( SEPARATOR );
-            buf.append( segment );
+            if( i > 0 ) buf.append( SEPARATOR );
+            buf.append( segment( i ) );
+        }
+        
+        if( this.qualifier != null )
+        {
+            buf.append( SEPARATOR );
+            buf.append( this.qualifier );
         }
         
         return buf.toString();
     }
 
     @Override
-    public int hashCode() 
+    public int hashCode()
     {
-        int hashCode = 0;
+        long h = this.packed;
+        
+        if( this.wide != null )
+        {
+            for( long segment : this.wide )
+            {
+                h = h * 31 + segment;
+            }
+        }
         
-        for( long segment : this.segments )
+        h *= 0x9E3779B97F4A7C15L;
+        
+        int hashCode = (int) ( h ^ ( h >>> 32 ) );
+        
+        if( this.qualifier != null )
         {
-            hashCode += segment;
+            hashCode = hashCode * 31 + this.qualifier.hashCode();
         }
         
         return hashCode;
     }
 
     @Override
-    public boolean equals( final Object object ) 
+    public boolean equals( final Object object )
     {
         if( this == object )
         {
@@ -98,55 +312,61 @@ public final class BundleVersion implements Comparable<BundleVersion>
             return false;
         }
         
-        final BundleVersion other = (BundleVersion) object;
-        
-        if( this.segments.length != other.segments.length )
-        {
-            return false;
-        }
-        
-        for( int i = 0; i < this.segments.length; i++ )
-        {
-            if( this.segments[ i ] != other.segments[ i ] )
-            {
-                return false;
-            }
-        }
-        
-        return true;
+        return compareTo( (BundleVersion) object ) == 0;
     }
 
-    public int compareTo( final BundleVersion other ) 
+    public int compareTo( final BundleVersion other )
     {
         if( this == other )
         {
             return 0;
         }
         
-        for( int i = 0, n = min( this.segments.length, other.segments.length ); 
-             i < n; i++ )
+        int result;
+        
+        if( this.wide == null && other.wide == null )
         {
-            final long result = this.segments[ i ] - other.segments[ i ];
-            
-            if( result < 0 )
+            result = Long.compare( this.packed, other.packed );
+        }
+        else
+        {
+            result = compareSegments( other );
+        }
+        
+        if( result == 0 && this.qualifier != other.qualifier )
+        {
+            if( this.qualifier == null )
             {
-                return -1;
+                result = -1;
             }
-            else if( result > 0 )
+            else if( other.qualifier == null )
             {
-                return 1;
+                result = 1;
+            }
+            else
+            {
+                result = Integer.signum( this.qualifier.compareTo( other.qualifier ) );
             }
         }
         
-        if( this.segments.length > other.segments.length )
-        {
-            return 1;
-        }
-        else if( this.segments.length < other.segments.length )
+        return result;
+    }
+    
+    private int compareSegments( final BundleVersion other )
+    {
+        final int thisLength = length();
+        final int otherLength = other.length();
+        
+        for( int i = 0, n = Math.min( thisLength, otherLength ); i < n; i++ )
         {
-            return -1;
+            final int result = Long.compare( segment( i ), other.segment( i ) );
+            
+            if( result != 0 )
+            {
+                return result;
+            }
         }
 
-        return 0; 
+        return Integer.compare( thisLength, otherLength );
     }
 }
@@ -0,0 +1,348 @@
+/******************************************************************************
+ * Copyright (c) 2016 Oracle
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Konstantin Komissarchik - initial implementation and ongoing maintenance
+ ******************************************************************************/
+
+package org.eclipse.corundum;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import org.apache.tools.ant.BuildException;
+
+/**
+ * The manifest header changes computed by a task in plan mode, so that they can be reviewed and
+ * applied later. The change set is stored as a properties file with an old and a new value for each
+ * changed header, keyed by the file name of the bundle and the name of the header:
+ *
+ * <pre>
+ * org.example.bundle_1.0.0.jar/Require-Bundle.old = org.example.other
+ * org.example.bundle_1.0.0.jar/Require-Bundle.new = org.example.other;bundle-version="[1.0.0,2.0.0)"
+ * </pre>
+ *
+ * <p>Several tasks can share a change set as long as they change different headers.</p>
+ *
+ * @author <a href="konstantin@komissarchik.net">Konstantin Komissarchik</a>
+ */
+
+public final class ChangeSet
+{
+    public static final String MODE_DIRECT = "direct";
+    public static final String MODE_PLAN = "plan";
+    public static final String MODE_APPLY = "apply";
+    
+    private static final String HEADER = "# corundum change set";
+    private static final String OLD_SUFFIX = ".old";
+    private static final String NEW_SUFFIX = ".new";
+    
+    private final Map<String,Change> changes = new TreeMap<String,Change>();
+    
+    /**
+     * Validates the mode attribute of a task that supports change sets. In the direct mode, changes
+     * are written right away. In the plan mode, they are written to the change set instead, and in
+     * the apply mode, the changes in the change set are written.
+     */
+    
+    public static String checkMode( final String mode )
+    {
+        if( ! MODE_DIRECT.equals( mode ) && ! MODE_PLAN.equals( mode ) && ! MODE_APPLY.equals( mode ) )
+        {
+            throw new BuildException( "Unknown mode \"" + mode + "\"." );
+        }
+        
+        return mode;
+    }
+    
+    public static ChangeSet load( final File file ) throws IOException
+    {
+        final ChangeSet changeSet = new ChangeSet();
+        
+        if( file.exists() )
+        {
+            final Properties properties = new Properties();
+            
+            try( InputStream in = new FileInputStream( file ) )
+            {
+                properties.load( in );
+            }
+            
+            for( String key : properties.stringPropertyNames() )
+            {
+                if( key.endsWith( NEW_SUFFIX ) )
+                {
+                    final String name = key.substring( 0, key.length() - NEW_SUFFIX.length() );
+                    final int slash = name.lastIndexOf( '/' );
+                    
+                    if( slash <= 0 || slash == name.length() - 1 )
+                    {
+                        throw new IOException( "Invalid change set entry " + key + " in " + file );
+                    }
+                    
+                    changeSet.add( name.substring( 0, slash ), name.substring( slash + 1 ),
+                                   properties.getProperty( name + OLD_SUFFIX ), properties.getProperty( key ) );
+                }
+            }
+        }
+        
+        return changeSet;
+    }
+    
+    public List<Change> getChanges()
+    {
+        return Collections.unmodifiableList( new ArrayList<Change>( this.changes.values() ) );
+    }
+    
+    public List<Change> getChanges( final String header )
+    {
+        final List<Change> result = new ArrayList<Change>();
+        
+        for( Change change : this.changes.values() )
+        {
+            if( change.getHeader().equals( header ) )
+            {
+                result.add( change );
+            }
+        }
+        
+        return result;
+    }
+    
+    /**
+     * Adds a change, replacing any change to the same header of the same bundle.
+     *
+     * @param bundle the file name of the bundle
+     * @param oldValue the current value of the header or null if the header does not exist
+     * @param newValue the new value of the header
+     */
+    
+    public void add( final String bundle, final String header, final String oldValue, final String newValue )
+    {
+        final Change change = new Change( bundle, header, oldValue, newValue );
+        this.changes.put( change.key(), change );
+    }
+    
+    public void remove( final String header )
+    {
+        for( Change change : getChanges( header ) )
+        {
+            this.changes.remove( change.key() );
+        }
+    }
+    
+    public void remove( final Collection<String> headers )
+    {
+        for( String header : headers )
+        {
+            remove( header );
+        }
+    }
+    
+    /**
+     * Writes the change set, unless the file already has identical content.
+     *
+     * @return true if the file was written
+     */
+    
+    public boolean save( final File file ) throws IOException
+    {
+        final StringBuilder buf = new StringBuilder();
+        
+        buf.append( HEADER ).append( '\n' );
+        
+        for( Change change : this.changes.values() )
+        {
+            if( change.getOldValue() != null )
+            {
+                append( buf, change.key() + OLD_SUFFIX, change.getOldValue() );
+            }
+            
+            append( buf, change.key() + NEW_SUFFIX, change.getNewValue() );
+        }
+        
+        return FileUtil.write( file, buf.toString() );
+    }
+    
+    private static void append( final StringBuilder buf, final String key, final String value )
+    {
+        escape( buf, key, true );
+        buf.append( " = " );
+        escape( buf, value, false );
+        buf.append( '\n' );
+    }
+    
+    private static void escape( final StringBuilder buf, final String string, final boolean key )
+    {
+        for( int i = 0, n = string.length(); i < n; i++ )
+        {
+            final char ch = string.charAt( i );
+            
+            switch( ch )
+            {
+                case '\\': buf.append( "\\\\" ); break;
+                case '\t': buf.append( "\\t" ); break;
+                case '\n': buf.append( "\\n" ); break;
+                case '\r': buf.append( "\\r" ); break;
+                case '\f': buf.append( "\\f" ); break;
+                case '=':
+                case ':':
+                case '#':
+                case '!':
+                case ' ':
+                {
+                    if( key || i == 0 )
+                    {
+                        buf.append( '\\' );
+                    }
+                    
+                    buf.append( ch );
+                    break;
+                }
+                default:
+                {
+                    if( ch < 0x20 || ch > 0x7E )
+                    {
+                        buf.append( String.format( "\\u%04X", (int) ch ) );
+                    }
+                    else
+                    {
+                        buf.append( ch );
+                    }
+                }
+            }
+        }
+    }
+    
+    public List<Change> apply( final File bundlesDirectory, final String header ) throws IOException
+    {
+        return apply( bundlesDirectory, Collections.singleton( header ) );
+    }
+    
+    /**
+     * Applies the changes to the specified headers of the bundles in a directory. A change is skipped
+     * if the header already has the new value. If the header has neither the old nor the new value,
+     * the bundle has changed since the change set was created and nothing is applied. The manifest
+     * of each bundle is written at most once.
+     *
+     * @return the changes that were applied
+     * @throws BuildException if a bundle does not exist or has been changed since the change set was created
+     */
+    
+    public List<Change> apply( final File bundlesDirectory, final Collection<String> headers ) throws IOException
+    {
+        final List<Change> applied = new ArrayList<Change>();
+        final Map<String,Map<String,String>> updates = new LinkedHashMap<String,Map<String,String>>();
+        Map<String,String> manifest = null;
+        String manifestBundle = null;
+        
+        for( Change change : this.changes.values() )
+        {
+            if( ! headers.contains( change.getHeader() ) )
+            {
+                continue;
+            }
+            
+            final File bundle = new File( bundlesDirectory, change.getBundle() );
+            
+            if( ! bundle.exists() )
+            {
+                throw new BuildException( "Bundle " + change.getBundle() + " from the change set does not exist." );
+            }
+            
+            if( ! change.getBundle().equals( manifestBundle ) )
+            {
+                manifest = ManifestUtil.readManifest( bundle );
+                manifestBundle = change.getBundle();
+            }
+            
+            final String current = ( manifest == null ? null : manifest.get( change.getHeader() ) );
+            
+            if( change.getNewValue().equals( current ) )
+            {
+                continue;
+            }
+            
+            if( current == null ? change.getOldValue() != null : ! current.equals( change.getOldValue() ) )
+            {
+                throw new BuildException( change.getHeader() + " of bundle " + change.getBundle() + " has changed since the change set was created." );
+            }
+            
+            Map<String,String> update = updates.get( change.getBundle() );
+            
+            if( update == null )
+            {
+                update = new LinkedHashMap<String,String>();
+                updates.put( change.getBundle(), update );
+            }
+            
+            update.put( change.getHeader(), change.getNewValue() );
+            applied.add( change );
+        }
+        
+        // Nothing is written until all changes are known to apply.
+        
+        for( Map.Entry<String,Map<String,String>> entry : updates.entrySet() )
+        {
+            ManifestUtil.setBundleManifestEntries( new File( bundlesDirectory, entry.getKey() ), entry.getValue() );
+        }
+        
+        return applied;
+    }
+    
+    public static final class Change
+    {
+        private final String bundle;
+        private final String header;
+        private final String oldValue;
+        private final String newValue;
+        
+        public Change( final String bundle, final String header, final String oldValue, final String newValue )
+        {
+            this.bundle = bundle;
+            this.header = header;
+            this.oldValue = oldValue;
+            this.newValue = newValue;
+        }
+        
+        public String getBundle()
+        {
+            return this.bundle;
+        }
+        
+        public String getHeader()
+        {
+            return this.header;
+        }
+        
+        public String getOldValue()
+        {
+            return this.oldValue;
+        }
+        
+        public String getNewValue()
+        {
+            return this.newValue;
+        }
+        
+        private String key()
+        {
+            return this.bundle + "/" + this.header;
+        }
+    }
+    
+}
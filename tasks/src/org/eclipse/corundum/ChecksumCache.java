@@ -0,0 +1,177 @@
+/******************************************************************************
+ * Copyright (c) 2016 Oracle
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Konstantin Komissarchik - initial implementation and ongoing maintenance
+ ******************************************************************************/
+
+package org.eclipse.corundum;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Persistent cache of the checksums of the files in a repository, keyed by the path of the file
+ * relative to the repository. An entry is only used if the size and the modification time of the
+ * file are unchanged since the entry was created and it has a checksum for every requested algorithm.
+ * The cache also records the checksum files that were written, so that those that are no longer
+ * written can be deleted without touching checksum files from other sources.
+ *
+ * @author <a href="konstantin@komissarchik.net">Konstantin Komissarchik</a>
+ */
+
+final class ChecksumCache extends PersistentCache<ChecksumCache.Entry>
+{
+    private static final String HEADER = "# corundum checksum cache 2";
+    private static final String WRITTEN_PREFIX = "written=";
+    
+    private final Set<String> previouslyWritten = new HashSet<String>();
+    private final Set<String> written = Collections.newSetFromMap( new ConcurrentHashMap<String,Boolean>() );
+    
+    private ChecksumCache()
+    {
+        super( HEADER );
+    }
+    
+    public static ChecksumCache load( final File file )
+    {
+        final ChecksumCache cache = new ChecksumCache();
+        cache.read( file );
+        return cache;
+    }
+    
+    @Override
+    protected void parse( final String line, final String[] segments )
+    {
+        if( segments.length == 1 && line.startsWith( WRITTEN_PREFIX ) )
+        {
+            this.previouslyWritten.add( line.substring( WRITTEN_PREFIX.length() ) );
+            return;
+        }
+        
+        if( segments.length < 4 )
+        {
+            throw new IllegalArgumentException( line );
+        }
+        
+        final Map<String,String> checksums = new LinkedHashMap<String,String>();
+        
+        for( int i = 3; i < segments.length; i++ )
+        {
+            final int equals = segments[ i ].indexOf( '=' );
+            
+            if( equals == -1 )
+            {
+                throw new IllegalArgumentException( line );
+            }
+            
+            checksums.put( segments[ i ].substring( 0, equals ), segments[ i ].substring( equals + 1 ) );
+        }
+        
+        add( segments[ 0 ], new Entry( Long.parseLong( segments[ 1 ] ), Long.parseLong( segments[ 2 ] ), checksums ) );
+    }
+    
+    @Override
+    protected void reset()
+    {
+        this.previouslyWritten.clear();
+    }
+    
+    /**
+     * Returns the cached checksums of the specified file, keyed by algorithm, or null if there is no
+     * entry, the file has changed since the entry was created or an algorithm is missing.
+     */
+    
+    public Map<String,String> get( final String path, final long size, final long modified, final Collection<String> algorithms )
+    {
+        final Entry entry = lookup( path );
+        
+        if( entry != null && entry.size == size && entry.modified == modified && entry.checksums.keySet().containsAll( algorithms ) )
+        {
+            use( path, entry );
+            return entry.checksums;
+        }
+        
+        return null;
+    }
+    
+    public void put( final String path, final long size, final long modified, final Map<String,String> checksums )
+    {
+        use( path, new Entry( size, modified, checksums ) );
+    }
+    
+    /**
+     * Returns the paths of the checksum files that were recorded as written when the cache was saved.
+     */
+    
+    public Set<String> getPreviouslyWritten()
+    {
+        return Collections.unmodifiableSet( this.previouslyWritten );
+    }
+    
+    /**
+     * Records that a checksum file was written, so that it can be deleted by a later run that no
+     * longer writes it.
+     */
+    
+    public void addWritten( final String path )
+    {
+        this.written.add( path );
+    }
+    
+    public boolean isWritten( final String path )
+    {
+        return this.written.contains( path );
+    }
+    
+    @Override
+    protected void writePreamble( final StringBuilder buf )
+    {
+        for( String path : new TreeSet<String>( this.written ) )
+        {
+            if( isStorable( path ) )
+            {
+                buf.append( WRITTEN_PREFIX ).append( path ).append( '\n' );
+            }
+        }
+    }
+    
+    @Override
+    protected void write( final StringBuilder buf, final String path, final Entry entry )
+    {
+        buf.append( path ).append( SEPARATOR ).append( entry.size ).append( SEPARATOR ).append( entry.modified );
+        
+        for( Map.Entry<String,String> checksum : entry.checksums.entrySet() )
+        {
+            buf.append( SEPARATOR ).append( checksum.getKey() ).append( '=' ).append( checksum.getValue() );
+        }
+        
+        buf.append( '\n' );
+    }
+    
+    static final class Entry
+    {
+        private final long size;
+        private final long modified;
+        private final Map<String,String> checksums;
+        
+        public Entry( final long size, final long modified, final Map<String,String> checksums )
+        {
+            this.size = size;
+            this.modified = modified;
+            this.checksums = checksums;
+        }
+    }
+    
+}
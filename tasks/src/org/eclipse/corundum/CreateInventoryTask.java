@@ -15,6 +15,8 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.tools.ant.BuildException;
 
@@ -25,9 +27,14 @@ import org.apache.tools.ant.BuildException;
 public final class CreateInventoryTask extends AbstractTask
 {
     private static final String BUNDLES_INFO_PATH = "configuration/org.eclipse.equinox.simpleconfigurator/bundles.info";
+    private static final String FORMAT_TEXT = "text";
+    private static final String FORMAT_BINARY = "binary";
     
     private File eclipse = null;
     private File destination = null;
+    private String format = FORMAT_TEXT;
+    private File cacheFile = null;
+    private int threads = BundleScanner.defaultThreads();
     
     public void setEclipse( final File eclipse )
     {
@@ -39,6 +46,31 @@ public final class CreateInventoryTask extends AbstractTask
         this.destination = destination;
     }
     
+    public void setFormat( final String format )
+    {
+        if( ! FORMAT_TEXT.equals( format ) && ! FORMAT_BINARY.equals( format ) )
+        {
+            throw new BuildException( "Unknown inventory format \"" + format + "\"." );
+        }
+        
+        this.format = format;
+    }
+    
+    public void setCache( final File cacheFile )
+    {
+        this.cacheFile = cacheFile;
+    }
+    
+    public void setThreads( final int threads )
+    {
+        if( threads < 1 )
+        {
+            throw new BuildException( "The \"threads\" attribute must be a positive number." );
+        }
+        
+        this.threads = threads;
+    }
+    
     @Override
     
     public void execute()
@@ -58,9 +90,22 @@ public final class CreateInventoryTask extends AbstractTask
         }
         
         final BundleInventory inventory = new BundleInventory();
+        final InventoryCache cache = InventoryCache.load( this.cacheFile );
+        final List<File> locations = new ArrayList<File>();
         
         try
         {
+            if( this.cacheFile != null )
+            {
+                final String digest = InventoryCache.digest( bundlesInfoFile );
+                
+                if( ! digest.equals( cache.getDigest() ) )
+                {
+                    info( "Platform bundles.info has changed since the inventory cache was created" );
+                    cache.setDigest( digest );
+                }
+            }
+            
             try( BufferedReader bundlesInfoReader = new BufferedReader( new FileReader( bundlesInfoFile ) ) )
             {
                 for( String line = bundlesInfoReader.readLine(); line != null; line = bundlesInfoReader.readLine() )
@@ -84,11 +129,31 @@ public final class CreateInventoryTask extends AbstractTask
                         
                         if( segments.length == 5 )
                         {
-                            inventory.addBundle( new BundleInfo( file ) );
+                            final BundleInfo bundle = cache.get( file );
+                            
+                            if( bundle == null )
+                            {
+                                locations.add( file );
+                            }
+                            else
+                            {
+                                inventory.addBundle( bundle );
+                            }
                         }
                     }
                 }
             }
+            
+            for( BundleScanner.Result result : new BundleScanner( this.threads ).scan( locations ) )
+            {
+                if( result.getException() != null )
+                {
+                    throw result.getException();
+                }
+                
+                inventory.addBundle( result.getBundle() );
+                cache.put( result.getBundle() );
+            }
         }
         catch( final Exception e )
         {
@@ -97,7 +162,20 @@ public final class CreateInventoryTask extends AbstractTask
         
         try
         {
-            inventory.write( this.destination );
+            if( FORMAT_BINARY.equals( this.format ) )
+            {
+                inventory.writeBinary( this.destination );
+            }
+            else
+            {
+                inventory.write( this.destination );
+            }
+            
+            if( this.cacheFile != null )
+            {
+                cache.save( this.cacheFile );
+                info( "Inventory cache: " + cache.getHits() + " hits, " + cache.getMisses() + " misses" );
+            }
         }
         catch( final IOException e )
         {
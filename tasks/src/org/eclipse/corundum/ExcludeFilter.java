@@ -0,0 +1,435 @@
+/******************************************************************************
+ * Copyright (c) 2016 Oracle
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Konstantin Komissarchik - initial implementation and ongoing maintenance
+ ******************************************************************************/
+
+package org.eclipse.corundum;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.apache.tools.ant.types.DataType;
+import org.apache.tools.ant.types.Resource;
+import org.apache.tools.ant.types.ResourceCollection;
+import org.apache.tools.ant.types.resources.FileResource;
+
+/**
+ * Excludes bundles by id and files by location. Bundle ids are matched against regular expressions,
+ * of which those without special characters are looked up in a hash set and the rest are combined
+ * into a single pattern. Files are excluded along with everything underneath them and are looked up
+ * in a trie of path segments. The filter is compiled when it is first used and can be shared
+ * between tasks by reference.
+ *
+ * <pre>
+ * &lt;exclude-filter id="common.excludes" ids="org\.example\.tests;.*\.source"&gt;
+ *   &lt;exclude id="org\.example\.internal\..*"/&gt;
+ *   &lt;exclude path="${build.dir}/repository/images"/&gt;
+ *   &lt;fileset dir="${build.dir}/repository" includes="*.txt"/&gt;
+ *   &lt;filter refid="other.excludes"/&gt;
+ * &lt;/exclude-filter&gt;
+ * </pre>
+ *
+ * @author <a href="konstantin@komissarchik.net">Konstantin Komissarchik</a>
+ */
+
+public final class ExcludeFilter extends DataType
+{
+    private final List<Entry> entries = new ArrayList<Entry>();
+    private final List<Entry> idEntries = new ArrayList<Entry>();
+    private final List<ResourceCollection> resources = new ArrayList<ResourceCollection>();
+    private final List<ExcludeFilter> filters = new ArrayList<ExcludeFilter>();
+    private volatile Compiled compiled;
+    
+    /**
+     * Excludes the bundles whose ids match any of the semicolon-separated regular expressions. The
+     * expressions replace those of an earlier call, but not the nested excludes.
+     */
+    
+    public void setIds( final String ids )
+    {
+        checkAttributesAllowed();
+        
+        this.entries.removeAll( this.idEntries );
+        this.idEntries.clear();
+        this.compiled = null;
+        
+        for( String id : ids.split( ";" ) )
+        {
+            if( id.length() > 0 )
+            {
+                final Entry entry = entry();
+                entry.setId( id );
+                this.idEntries.add( entry );
+            }
+        }
+    }
+    
+    public Entry createExclude()
+    {
+        checkChildrenAllowed();
+        
+        return entry();
+    }
+    
+    private Entry entry()
+    {
+        final Entry entry = new Entry();
+        this.entries.add( entry );
+        this.compiled = null;
+        return entry;
+    }
+    
+    public void add( final ResourceCollection rc )
+    {
+        checkChildrenAllowed();
+        
+        this.resources.add( rc );
+        this.compiled = null;
+    }
+    
+    public void add( final File file )
+    {
+        checkChildrenAllowed();
+        
+        entry().setPath( file );
+    }
+    
+    /**
+     * Adds another filter, typically a reference to a filter defined elsewhere. Anything excluded by
+     * the other filter is excluded by this filter.
+     */
+    
+    public void addFilter( final ExcludeFilter filter )
+    {
+        checkChildrenAllowed();
+        
+        this.filters.add( filter );
+        this.compiled = null;
+    }
+    
+    public boolean isExcluded( final String id )
+    {
+        final Compiled compiled = compiled();
+        
+        if( compiled.ids.contains( id ) )
+        {
+            return true;
+        }
+        
+        if( compiled.pattern != null && compiled.pattern.matcher( id ).matches() )
+        {
+            return true;
+        }
+        
+        for( Pattern pattern : compiled.patterns )
+        {
+            if( pattern.matcher( id ).matches() )
+            {
+                return true;
+            }
+        }
+        
+        for( ExcludeFilter filter : compiled.filters )
+        {
+            if( filter.isExcluded( id ) )
+            {
+                return true;
+            }
+        }
+        
+        return false;
+    }
+    
+    /**
+     * Returns whether the file or any of its parent directories is excluded.
+     */
+    
+    public boolean isExcluded( final File file )
+    {
+        final Compiled compiled = compiled();
+        
+        if( compiled.paths.children != null )
+        {
+            PathNode node = compiled.paths;
+            
+            for( String segment : segments( file ) )
+            {
+                node = node.get( segment );
+                
+                if( node == null )
+                {
+                    break;
+                }
+                
+                if( node.terminal )
+                {
+                    return true;
+                }
+            }
+        }
+        
+        for( ExcludeFilter filter : compiled.filters )
+        {
+            if( filter.isExcluded( file ) )
+            {
+                return true;
+            }
+        }
+        
+        return false;
+    }
+    
+    private Compiled compiled()
+    {
+        if( isReference() )
+        {
+            return getCheckedRef( ExcludeFilter.class, "exclude-filter" ).compiled();
+        }
+        
+        Compiled compiled = this.compiled;
+        
+        if( compiled == null )
+        {
+            synchronized( this )
+            {
+                compiled = this.compiled;
+                
+                if( compiled == null )
+                {
+                    compiled = compile();
+                    this.compiled = compiled;
+                }
+            }
+        }
+        
+        return compiled;
+    }
+    
+    private Compiled compile()
+    {
+        final Compiled compiled = new Compiled();
+        final StringBuilder alternation = new StringBuilder();
+        
+        for( Entry entry : this.entries )
+        {
+            final String id = entry.getId();
+            
+            if( id != null )
+            {
+                final String literal = literal( id );
+                
+                if( literal != null )
+                {
+                    compiled.ids.add( literal );
+                }
+                else if( hasBackReference( id ) )
+                {
+                    // Group numbers change when patterns are combined.
+                    
+                    compiled.patterns.add( Pattern.compile( id ) );
+                }
+                else
+                {
+                    // Each pattern is compiled by itself first, so that an invalid pattern cannot be
+                    // absorbed by the combined pattern and is reported on its own.
+                    
+                    Pattern.compile( id );
+                    
+                    if( alternation.length() > 0 )
+                    {
+                        alternation.append( '|' );
+                    }
+                    
+                    alternation.append( "(?:" ).append( id ).append( ')' );
+                }
+            }
+            
+            if( entry.getPath() != null )
+            {
+                compiled.paths.add( segments( entry.getPath() ) );
+            }
+        }
+        
+        if( alternation.length() > 0 )
+        {
+            compiled.pattern = Pattern.compile( alternation.toString() );
+        }
+        
+        for( ResourceCollection rc : this.resources )
+        {
+            for( Iterator<Resource> itr = rc.iterator(); itr.hasNext(); )
+            {
+                final Resource resource = itr.next();
+                
+                if( resource instanceof FileResource )
+                {
+                    compiled.paths.add( segments( ( (FileResource) resource ).getFile() ) );
+                }
+            }
+        }
+        
+        compiled.filters.addAll( this.filters );
+        
+        return compiled;
+    }
+    
+    /**
+     * Returns the string that a regular expression matches if it only matches one string, allowing
+     * for escaped periods, or null otherwise.
+     */
+    
+    private static String literal( final String regex )
+    {
+        final StringBuilder buf = new StringBuilder( regex.length() );
+        
+        for( int i = 0, n = regex.length(); i < n; i++ )
+        {
+            final char ch = regex.charAt( i );
+            
+            if( ch == '\\' && i + 1 < n && regex.charAt( i + 1 ) == '.' )
+            {
+                buf.append( '.' );
+                i++;
+            }
+            else if( Character.isLetterOrDigit( ch ) || ch == '_' || ch == '-' )
+            {
+                buf.append( ch );
+            }
+            else
+            {
+                return null;
+            }
+        }
+        
+        return buf.toString();
+    }
+    
+    private static boolean hasBackReference( final String regex )
+    {
+        for( int i = 0, n = regex.length() - 1; i < n; i++ )
+        {
+            if( regex.charAt( i ) == '\\' )
+            {
+                final char next = regex.charAt( i + 1 );
+                
+                if( Character.isDigit( next ) || next == 'k' )
+                {
+                    return true;
+                }
+                
+                i++;
+            }
+        }
+        
+        return false;
+    }
+    
+    private static List<String> segments( final File file )
+    {
+        final Path path = file.getAbsoluteFile().toPath().normalize();
+        final List<String> segments = new ArrayList<String>( path.getNameCount() + 1 );
+        
+        if( path.getRoot() != null )
+        {
+            segments.add( path.getRoot().toString() );
+        }
+        
+        for( Path segment : path )
+        {
+            segments.add( segment.toString() );
+        }
+        
+        return segments;
+    }
+    
+    private static final class Compiled
+    {
+        private final Set<String> ids = new HashSet<String>();
+        private Pattern pattern;
+        private final List<Pattern> patterns = new ArrayList<Pattern>();
+        private final PathNode paths = new PathNode();
+        private final List<ExcludeFilter> filters = new ArrayList<ExcludeFilter>();
+    }
+    
+    private static final class PathNode
+    {
+        private Map<String,PathNode> children;
+        private boolean terminal;
+        
+        public PathNode get( final String segment )
+        {
+            return ( this.children == null ? null : this.children.get( segment ) );
+        }
+        
+        public void add( final List<String> segments )
+        {
+            PathNode node = this;
+            
+            for( String segment : segments )
+            {
+                if( node.children == null )
+                {
+                    node.children = new HashMap<String,PathNode>();
+                }
+                
+                PathNode child = node.children.get( segment );
+                
+                if( child == null )
+                {
+                    child = new PathNode();
+                    node.children.put( segment, child );
+                }
+                
+                node = child;
+            }
+            
+            node.terminal = true;
+        }
+    }
+    
+    /**
+     * Excludes the bundles whose ids match a regular expression or a file along with everything
+     * underneath it.
+     */
+    
+    public static final class Entry
+    {
+        private String id;
+        private File path;
+        
+        public String getId()
+        {
+            return this.id;
+        }
+        
+        public void setId( final String id )
+        {
+            this.id = id;
+        }
+        
+        public File getPath()
+        {
+            return this.path;
+        }
+        
+        public void setPath( final File path )
+        {
+            this.path = path;
+        }
+    }
+    
+}
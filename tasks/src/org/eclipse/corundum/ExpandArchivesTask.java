@@ -0,0 +1,426 @@
+/******************************************************************************
+ * Copyright (c) 2016 Oracle
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Konstantin Komissarchik - initial implementation and ongoing maintenance
+ ******************************************************************************/
+
+package org.eclipse.corundum;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.types.FileSet;
+import org.apache.tools.ant.types.Path;
+import org.apache.tools.ant.types.resources.FileResource;
+
+/**
+ * Expands each archive matched in the source directory into a directory named after the archive,
+ * working on several archives at once. Files are written through file channels with their final size
+ * allocated up front. Optionally, archives are memory-mapped instead of being read through the file
+ * channel.
+ *
+ * @author <a href="konstantin@komissarchik.net">Konstantin Komissarchik</a>
+ */
+
+public final class ExpandArchivesTask extends AbstractTask
+{
+    private static final int BUFFER_SIZE = 64 * 1024;
+    
+    private File source;
+    private File destination;
+    private String suffix = "jar";
+    private String includes;
+    private String excludes = "";
+    private int threads = BundleScanner.defaultThreads();
+    private boolean mmap = false;
+    private String pathId;
+    
+    public void setSource( final File source )
+    {
+        this.source = source;
+    }
+    
+    public void setDest( final File destination )
+    {
+        this.destination = destination;
+    }
+    
+    public void setSuffix( final String suffix )
+    {
+        this.suffix = suffix;
+    }
+    
+    public void setIncludes( final String includes )
+    {
+        this.includes = includes;
+    }
+    
+    public void setExcludes( final String excludes )
+    {
+        this.excludes = excludes;
+    }
+    
+    public void setThreads( final int threads )
+    {
+        if( threads < 1 )
+        {
+            throw new BuildException( "The \"threads\" attribute must be a positive number." );
+        }
+        
+        this.threads = threads;
+    }
+    
+    public void setMmap( final boolean mmap )
+    {
+        this.mmap = mmap;
+    }
+    
+    /**
+     * Sets the id of a path reference that receives the expanded archives, in the order in which they
+     * were found.
+     */
+    
+    public void setPathId( final String pathId )
+    {
+        this.pathId = pathId;
+    }
+    
+    @Override
+    public void execute()
+    {
+        if( this.source == null )
+        {
+            throw new BuildException( "The \"source\" attribute must be specified." );
+        }
+        
+        final File destination = ( this.destination == null ? this.source : this.destination );
+        final List<File> archives = new ArrayList<File>();
+        
+        if( this.source.isDirectory() )
+        {
+            final FileSet fileset = new FileSet();
+            fileset.setProject( getProject() );
+            fileset.setDir( this.source );
+            fileset.setIncludes( this.includes == null ? "*." + this.suffix : this.includes );
+            fileset.setExcludes( this.excludes );
+            
+            final String[] names = fileset.getDirectoryScanner().getIncludedFiles();
+            Arrays.sort( names );
+            
+            for( String name : names )
+            {
+                archives.add( new File( this.source, name ) );
+            }
+        }
+        
+        if( ! archives.isEmpty() )
+        {
+            final ExecutorService executor = Executors.newFixedThreadPool( Math.min( this.threads, archives.size() ) );
+            
+            try
+            {
+                final List<Future<Void>> futures = new ArrayList<Future<Void>>();
+                
+                for( final File archive : archives )
+                {
+                    futures.add
+                    (
+                        executor.submit
+                        (
+                            new Callable<Void>()
+                            {
+                                public Void call() throws IOException
+                                {
+                                    final String name = archive.getName();
+                                    final String suffix = "." + ExpandArchivesTask.this.suffix;
+                                    final String base = ( name.endsWith( suffix ) ? name.substring( 0, name.length() - suffix.length() ) : name );
+                                    final File dir = new File( destination, base );
+                                    
+                                    expand( archive, dir );
+                                    FileSystemSnapshot.invalidateAll( dir );
+                                    
+                                    return null;
+                                }
+                            }
+                        )
+                    );
+                }
+                
+                for( Future<Void> future : futures )
+                {
+                    future.get();
+                }
+            }
+            catch( final InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+                throw new BuildException( e );
+            }
+            catch( final ExecutionException e )
+            {
+                throw new BuildException( e.getCause() );
+            }
+            finally
+            {
+                executor.shutdownNow();
+            }
+            
+            info( "Expanded " + archives.size() + " archives" );
+        }
+        
+        if( this.pathId != null )
+        {
+            final Path path = new Path( getProject() );
+            
+            for( File archive : archives )
+            {
+                path.add( new FileResource( archive ) );
+            }
+            
+            getProject().addReference( this.pathId, path );
+        }
+    }
+    
+    private void expand( final File archive, final File dir ) throws IOException
+    {
+        final ZipDirectory zip;
+        
+        try
+        {
+            zip = ZipDirectory.open( archive );
+        }
+        catch( final ZipException e )
+        {
+            expandWithZipFile( archive, dir );
+            return;
+        }
+        
+        try
+        {
+            final FileChannel channel = zip.channel();
+            final MappedByteBuffer mapped
+                = ( this.mmap && channel.size() <= Integer.MAX_VALUE ? channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() ) : null );
+            
+            final byte[] input = new byte[ BUFFER_SIZE ];
+            final byte[] output = new byte[ BUFFER_SIZE ];
+            final Inflater inflater = new Inflater( true );
+            
+            try
+            {
+                for( int entry = 0, n = zip.size(); entry < n; entry++ )
+                {
+                    final File file = target( dir, zip.name( entry ) );
+                    
+                    if( zip.isDirectory( entry ) )
+                    {
+                        file.mkdirs();
+                        continue;
+                    }
+                    
+                    file.getParentFile().mkdirs();
+                    
+                    final int method = zip.method( entry );
+                    final long offset = zip.dataOffset( entry );
+                    final long compressedSize = zip.compressedSize( entry );
+                    final long size = zip.size( entry );
+                    
+                    if( method != ZipEntry.STORED && method != ZipEntry.DEFLATED )
+                    {
+                        throw new ZipException( "Unsupported compression method " + method + " in " + archive );
+                    }
+                    
+                    try( RandomAccessFile raf = new RandomAccessFile( file, "rw" ) )
+                    {
+                        raf.setLength( size );
+                        
+                        final FileChannel out = raf.getChannel();
+                        
+                        if( method == ZipEntry.STORED )
+                        {
+                            if( mapped != null )
+                            {
+                                final ByteBuffer data = mapped.duplicate();
+                                data.position( (int) offset );
+                                data.limit( (int) ( offset + size ) );
+                                
+                                while( data.hasRemaining() )
+                                {
+                                    out.write( data );
+                                }
+                            }
+                            else
+                            {
+                                for( long position = 0; position < size; )
+                                {
+                                    position += channel.transferTo( offset + position, size - position, out );
+                                }
+                            }
+                        }
+                        else
+                        {
+                            inflater.reset();
+                            
+                            long read = 0;
+                            long written = 0;
+                            boolean dummy = false;
+                            
+                            while( ! inflater.finished() )
+                            {
+                                if( inflater.needsInput() )
+                                {
+                                    final int length = (int) Math.min( input.length, compressedSize - read );
+                                    
+                                    if( length > 0 )
+                                    {
+                                        read( channel, mapped, offset + read, input, length );
+                                        inflater.setInput( input, 0, length );
+                                        read += length;
+                                    }
+                                    else if( ! dummy )
+                                    {
+                                        // The inflater may need an extra byte when nowrap is used.
+                                        
+                                        input[ 0 ] = 0;
+                                        inflater.setInput( input, 0, 1 );
+                                        dummy = true;
+                                    }
+                                    else
+                                    {
+                                        break;
+                                    }
+                                }
+                                else if( inflater.needsDictionary() )
+                                {
+                                    break;
+                                }
+                                
+                                final int count = inflater.inflate( output );
+                                
+                                out.write( ByteBuffer.wrap( output, 0, count ) );
+                                written += count;
+                            }
+                            
+                            if( ! inflater.finished() || written != size )
+                            {
+                                throw new ZipException( "Truncated entry " + zip.name( entry ) + " in " + archive );
+                            }
+                        }
+                    }
+                    
+                    file.setLastModified( ZipUtil.javaTime( zip.dosTime( entry ) ) );
+                }
+            }
+            catch( final DataFormatException e )
+            {
+                final ZipException ze = new ZipException( e.getMessage() + " in " + archive );
+                ze.initCause( e );
+                throw ze;
+            }
+            finally
+            {
+                inflater.end();
+            }
+        }
+        finally
+        {
+            zip.close();
+        }
+    }
+    
+    private static void read( final FileChannel channel,
+                              final MappedByteBuffer mapped,
+                              final long position,
+                              final byte[] buffer,
+                              final int length )
+        
+        throws IOException
+    
+    {
+        if( mapped != null )
+        {
+            final ByteBuffer data = mapped.duplicate();
+            data.position( (int) position );
+            data.get( buffer, 0, length );
+        }
+        else
+        {
+            final ByteBuffer data = ByteBuffer.wrap( buffer, 0, length );
+            
+            while( data.hasRemaining() )
+            {
+                if( channel.read( data, position + data.position() ) == -1 )
+                {
+                    throw new ZipException( "Unexpected end of file" );
+                }
+            }
+        }
+    }
+    
+    private static void expandWithZipFile( final File archive, final File dir ) throws IOException
+    {
+        try( ZipFile zip = ZipUtil.open( archive ) )
+        {
+            for( Enumeration<? extends ZipEntry> itr = zip.entries(); itr.hasMoreElements(); )
+            {
+                final ZipEntry entry = itr.nextElement();
+                final File file = target( dir, entry.getName() );
+                
+                if( entry.isDirectory() )
+                {
+                    file.mkdirs();
+                }
+                else
+                {
+                    file.getParentFile().mkdirs();
+                    
+                    try( InputStream in = zip.getInputStream( entry ) )
+                    {
+                        Files.copy( in, file.toPath(), StandardCopyOption.REPLACE_EXISTING );
+                    }
+                    
+                    file.setLastModified( entry.getTime() );
+                }
+            }
+        }
+    }
+    
+    private static File target( final File dir, final String name ) throws ZipException
+    {
+        final File file = new File( dir, name );
+        
+        if( ! file.toPath().normalize().startsWith( dir.toPath().normalize() ) )
+        {
+            throw new ZipException( "Entry " + name + " is outside of the target directory" );
+        }
+        
+        return file;
+    }
+    
+}
@@ -0,0 +1,390 @@
+/******************************************************************************
+ * Copyright (c) 2016 Oracle
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Konstantin Komissarchik - initial implementation and ongoing maintenance
+ ******************************************************************************/
+
+package org.eclipse.corundum;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.apache.tools.ant.Project;
+
+/**
+ * Build-scoped snapshot of the file system, shared by all tasks through a project reference. The
+ * attributes of each file are read once, with a single call that returns the type, the size and the
+ * modification time, either while walking a tree or while listing a directory. Files written by
+ * corundum tasks are invalidated explicitly, but changes made by other tasks or tools are not
+ * detected, so a task that may follow such changes should invalidate the affected tree first.
+ * Entries are kept sorted by path, so that a directory is invalidated along with everything
+ * underneath it without visiting the rest of the snapshot.
+ *
+ * @author <a href="konstantin@komissarchik.net">Konstantin Komissarchik</a>
+ */
+
+public final class FileSystemSnapshot
+{
+    private static final String REFERENCE_ID = "org.eclipse.corundum.file.system.snapshot";
+    
+    private static final Set<FileSystemSnapshot> INSTANCES
+        = Collections.synchronizedSet( Collections.newSetFromMap( new WeakHashMap<FileSystemSnapshot,Boolean>() ) );
+    
+    private final ConcurrentNavigableMap<String,Entry> entries = new ConcurrentSkipListMap<String,Entry>();
+    private final ConcurrentNavigableMap<String,List<String>> listings = new ConcurrentSkipListMap<String,List<String>>();
+    
+    public FileSystemSnapshot()
+    {
+        INSTANCES.add( this );
+    }
+    
+    public static FileSystemSnapshot get( final Project project )
+    {
+        synchronized( project )
+        {
+            FileSystemSnapshot snapshot = project.getReference( REFERENCE_ID );
+            
+            if( snapshot == null )
+            {
+                snapshot = new FileSystemSnapshot();
+                project.addReference( REFERENCE_ID, snapshot );
+            }
+            
+            return snapshot;
+        }
+    }
+    
+    /**
+     * Returns the attributes of a file or a directory or null if it does not exist.
+     */
+    
+    public Entry get( final File file )
+    {
+        return get( key( file ) );
+    }
+    
+    private Entry get( final String path )
+    {
+        Entry entry = this.entries.get( path );
+        
+        if( entry == null )
+        {
+            try
+            {
+                entry = new Entry( path, Files.readAttributes( Paths.get( path ), BasicFileAttributes.class ) );
+            }
+            catch( final IOException e )
+            {
+                return null;
+            }
+            
+            this.entries.put( path, entry );
+        }
+        
+        return entry;
+    }
+    
+    /**
+     * Returns the children of a directory, in no particular order, or an empty list if the directory
+     * does not exist.
+     */
+    
+    public List<Entry> list( final File directory )
+    {
+        return list( key( directory ) );
+    }
+    
+    private List<Entry> list( final String path )
+    {
+        List<String> listing = this.listings.get( path );
+        
+        if( listing == null )
+        {
+            listing = new ArrayList<String>();
+            
+            try( DirectoryStream<Path> stream = Files.newDirectoryStream( Paths.get( path ) ) )
+            {
+                for( Path child : stream )
+                {
+                    listing.add( child.toString() );
+                }
+            }
+            catch( final IOException e )
+            {
+                return Collections.emptyList();
+            }
+            
+            this.listings.put( path, listing );
+        }
+        
+        final List<Entry> children = new ArrayList<Entry>( listing.size() );
+        
+        for( String child : listing )
+        {
+            final Entry entry = get( child );
+            
+            if( entry != null )
+            {
+                children.add( entry );
+            }
+        }
+        
+        return children;
+    }
+    
+    /**
+     * Returns the files in a tree, sorted by path. The tree is walked once, and later calls only read
+     * the directories that have been invalidated since.
+     */
+    
+    public List<Entry> files( final File root )
+    {
+        final String path = key( root );
+        
+        if( ! this.listings.containsKey( path ) )
+        {
+            walk( Paths.get( path ) );
+        }
+        
+        final List<Entry> files = new ArrayList<Entry>();
+        final Deque<String> directories = new ArrayDeque<String>();
+        
+        directories.push( path );
+        
+        while( ! directories.isEmpty() )
+        {
+            for( Entry entry : list( directories.pop() ) )
+            {
+                if( entry.isDirectory() )
+                {
+                    directories.push( entry.path );
+                }
+                else if( entry.isFile() )
+                {
+                    files.add( entry );
+                }
+            }
+        }
+        
+        Collections.sort
+        (
+            files,
+            new Comparator<Entry>()
+            {
+                public int compare( final Entry x, final Entry y )
+                {
+                    return x.path.compareTo( y.path );
+                }
+            }
+        );
+        
+        return files;
+    }
+    
+    private void walk( final Path root )
+    {
+        final Deque<List<String>> stack = new ArrayDeque<List<String>>();
+        
+        try
+        {
+            Files.walkFileTree
+            (
+                root,
+                EnumSet.of( FileVisitOption.FOLLOW_LINKS ),
+                Integer.MAX_VALUE,
+                new SimpleFileVisitor<Path>()
+                {
+                    @Override
+                    public FileVisitResult preVisitDirectory( final Path dir, final BasicFileAttributes attributes )
+                    {
+                        add( dir, attributes );
+                        
+                        // Directories that have been listed before are not read again.
+                        
+                        if( ! dir.equals( root ) && FileSystemSnapshot.this.listings.containsKey( dir.toString() ) )
+                        {
+                            return FileVisitResult.SKIP_SUBTREE;
+                        }
+                        
+                        stack.push( new ArrayList<String>() );
+                        
+                        return FileVisitResult.CONTINUE;
+                    }
+                    
+                    @Override
+                    public FileVisitResult visitFile( final Path file, final BasicFileAttributes attributes )
+                    {
+                        add( file, attributes );
+                        return FileVisitResult.CONTINUE;
+                    }
+                    
+                    @Override
+                    public FileVisitResult visitFileFailed( final Path file, final IOException e )
+                    {
+                        return FileVisitResult.CONTINUE;
+                    }
+                    
+                    @Override
+                    public FileVisitResult postVisitDirectory( final Path dir, final IOException e )
+                    {
+                        final List<String> listing = stack.pop();
+                        
+                        if( e == null )
+                        {
+                            FileSystemSnapshot.this.listings.put( dir.toString(), listing );
+                        }
+                        
+                        return FileVisitResult.CONTINUE;
+                    }
+                    
+                    private void add( final Path path, final BasicFileAttributes attributes )
+                    {
+                        final String key = path.toString();
+                        
+                        FileSystemSnapshot.this.entries.put( key, new Entry( key, attributes ) );
+                        
+                        if( ! stack.isEmpty() )
+                        {
+                            stack.peek().add( key );
+                        }
+                    }
+                }
+            );
+        }
+        catch( final IOException e )
+        {
+            // The directories that could not be walked are listed when they are needed.
+        }
+    }
+    
+    /**
+     * Invalidates a file that has been written or deleted, along with everything underneath it and
+     * the directory that contains it.
+     */
+    
+    public void invalidate( final File file )
+    {
+        final String path = key( file );
+        
+        // The descendants of a path sort between the path followed by the separator and the path
+        // followed by the character after the separator.
+        
+        final String from = path + File.separatorChar;
+        final String to = path + (char) ( File.separatorChar + 1 );
+        
+        this.entries.remove( path );
+        this.entries.subMap( from, to ).clear();
+        this.listings.remove( path );
+        this.listings.subMap( from, to ).clear();
+        
+        final String parent = new File( path ).getParent();
+        
+        if( parent != null )
+        {
+            this.entries.remove( parent );
+            this.listings.remove( parent );
+        }
+    }
+    
+    /**
+     * Invalidates a file in all live snapshots.
+     */
+    
+    static void invalidateAll( final File file )
+    {
+        final List<FileSystemSnapshot> snapshots;
+        
+        synchronized( INSTANCES )
+        {
+            if( INSTANCES.isEmpty() )
+            {
+                return;
+            }
+            
+            snapshots = new ArrayList<FileSystemSnapshot>( INSTANCES );
+        }
+        
+        for( FileSystemSnapshot snapshot : snapshots )
+        {
+            snapshot.invalidate( file );
+        }
+    }
+    
+    private static String key( final File file )
+    {
+        return file.getAbsoluteFile().toPath().normalize().toString();
+    }
+    
+    public static final class Entry
+    {
+        private final String path;
+        private final boolean file;
+        private final boolean directory;
+        private final long size;
+        private final long lastModified;
+        
+        private Entry( final String path, final BasicFileAttributes attributes )
+        {
+            this.path = path;
+            this.file = attributes.isRegularFile();
+            this.directory = attributes.isDirectory();
+            this.size = attributes.size();
+            this.lastModified = attributes.lastModifiedTime().toMillis();
+        }
+        
+        public File getFile()
+        {
+            return new File( this.path );
+        }
+        
+        public String getName()
+        {
+            return getFile().getName();
+        }
+        
+        public boolean isFile()
+        {
+            return this.file;
+        }
+        
+        public boolean isDirectory()
+        {
+            return this.directory;
+        }
+        
+        public long getSize()
+        {
+            return this.size;
+        }
+        
+        public long getLastModified()
+        {
+            return this.lastModified;
+        }
+    }
+    
+}
@@ -17,6 +17,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.file.Files;
 
 /**
  * @author <a href="konstantin@komissarchik.net">Konstantin Komissarchik</a>
@@ -24,7 +25,7 @@ import java.io.OutputStream;
 
 public final class FileUtil
 {
-    public static void write( final File file, final InputStream content ) throws IOException
+    public static boolean write( final File file, final InputStream content ) throws IOException
     {
         byte[] buffer = new byte[ 16 * 1024 ];
         int bufferUsedLength = 0;
@@ -45,15 +46,21 @@ public final class FileUtil
         byte[] array = new byte[ bufferUsedLength ];
         System.arraycopy( buffer, 0, array, 0, bufferUsedLength );
         
-        write( file, array );
+        return write( file, array );
     }
     
-    public static void write( final File file, final String content ) throws IOException
+    public static boolean write( final File file, final String content ) throws IOException
     {
-        write( file, content.getBytes( "UTF-8" ) );
+        return write( file, content.getBytes( "UTF-8" ) );
     }
     
-    public static void write( final File file, final byte[] content ) throws IOException
+    /**
+     * Writes the content to the file, unless the file already has identical content.
+     *
+     * @return true if the file was written
+     */
+    
+    public static boolean write( final File file, final byte[] content ) throws IOException
     {
         boolean write = true;
         
@@ -90,6 +97,33 @@ public final class FileUtil
             {
                 out.write( content );
             }
+            
+            FileSystemSnapshot.invalidateAll( file );
+        }
+        
+        return write;
+    }
+    
+    /**
+     * Deletes a file or a directory with all of its content.
+     */
+    
+    public static void delete( final File file ) throws IOException
+    {
+        final File[] children = file.listFiles();
+        
+        if( children != null && ! Files.isSymbolicLink( file.toPath() ) )
+        {
+            for( File child : children )
+            {
+                delete( child );
+            }
+        }
+        
+        if( file.exists() || Files.isSymbolicLink( file.toPath() ) )
+        {
+            Files.delete( file.toPath() );
+            FileSystemSnapshot.invalidateAll( file );
         }
     }
     
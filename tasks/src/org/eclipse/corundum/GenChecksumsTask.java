@@ -0,0 +1,468 @@
+/******************************************************************************
+ * Copyright (c) 2016 Oracle
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Konstantin Komissarchik - initial implementation and ongoing maintenance
+ ******************************************************************************/
+
+package org.eclipse.corundum;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringTokenizer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.tools.ant.BuildException;
+
+/**
+ * Computes the checksums of the files in a repository, working on several files at once. For each
+ * algorithm, a checksum file is written next to every file, such as foo.jar.sha256, along with an
+ * index of all files in the root of the repository, such as SHA256SUMS. Both use the format of the
+ * sha256sum tool. Large files are mapped into memory and each file is read once for all algorithms.
+ * If a cache file is specified, the checksums of files whose size and modification time are
+ * unchanged are taken from the cache. The cache also records the checksum files that were written,
+ * so that those that are no longer written, such as those of files that no longer exist or of
+ * algorithms that are no longer selected, are deleted. Only checksum files of paths that match the
+ * include and exclude patterns are deleted, and checksum files from other sources are left alone.
+ *
+ * @author <a href="konstantin@komissarchik.net">Konstantin Komissarchik</a>
+ */
+
+public final class GenChecksumsTask extends AbstractTask
+{
+    // Files of at least this size are mapped into memory instead of being read into a buffer.
+    
+    private static final long MAP_THRESHOLD = 1024 * 1024;
+    
+    private static final long MAP_REGION_SIZE = 64 * 1024 * 1024;
+    
+    // The checksum files of these algorithms are never checksummed, so that the checksum files of
+    // previous runs or of other sources do not get checksum files of their own.
+    
+    private static final List<String> COMMON_ALGORITHMS = Arrays.asList( "MD5", "SHA-1", "SHA-256", "SHA-384", "SHA-512" );
+    
+    private File repository;
+    private final List<String> algorithms = new ArrayList<String>();
+    private String includes = "**";
+    private String excludes = "";
+    private int threads = BundleScanner.defaultThreads();
+    private boolean sidecars = true;
+    private boolean index = true;
+    private File cacheFile = null;
+    private boolean reuse = false;
+    
+    public GenChecksumsTask()
+    {
+        setAlgorithms( "SHA-256,SHA-512" );
+    }
+    
+    public void setRepository( final File repository )
+    {
+        this.repository = repository;
+    }
+    
+    /**
+     * Sets the comma-separated list of the digest algorithms to use, such as SHA-256.
+     */
+    
+    public void setAlgorithms( final String algorithms )
+    {
+        this.algorithms.clear();
+        
+        for( StringTokenizer tokens = new StringTokenizer( algorithms, ", ", false ); tokens.hasMoreTokens(); )
+        {
+            final String algorithm = tokens.nextToken().toUpperCase( Locale.ENGLISH );
+            
+            try
+            {
+                MessageDigest.getInstance( algorithm );
+            }
+            catch( final NoSuchAlgorithmException e )
+            {
+                throw new BuildException( "Unknown checksum algorithm \"" + algorithm + "\"." );
+            }
+            
+            if( ! this.algorithms.contains( algorithm ) )
+            {
+                this.algorithms.add( algorithm );
+            }
+        }
+        
+        if( this.algorithms.isEmpty() )
+        {
+            throw new BuildException( "The \"algorithms\" attribute must specify at least one algorithm." );
+        }
+    }
+    
+    public void setIncludes( final String includes )
+    {
+        this.includes = includes;
+    }
+    
+    public void setExcludes( final String excludes )
+    {
+        this.excludes = excludes;
+    }
+    
+    public void setThreads( final int threads )
+    {
+        if( threads < 1 )
+        {
+            throw new BuildException( "The \"threads\" attribute must be a positive number." );
+        }
+        
+        this.threads = threads;
+    }
+    
+    /**
+     * Determines whether a checksum file is written next to every file.
+     */
+    
+    public void setSidecars( final boolean sidecars )
+    {
+        this.sidecars = sidecars;
+    }
+    
+    /**
+     * Determines whether an index of the checksums of all files is written in the root of the repository.
+     */
+    
+    public void setIndex( final boolean index )
+    {
+        this.index = index;
+    }
+    
+    public void setCache( final File cacheFile )
+    {
+        this.cacheFile = ( cacheFile == null ? null : cacheFile.getAbsoluteFile() );
+    }
+    
+    /**
+     * Uses the repository as it was last read by the snapshot instead of reading it again.
+     */
+    
+    public void setReuse( final boolean reuse )
+    {
+        this.reuse = reuse;
+    }
+    
+    @Override
+    public void execute()
+    {
+        if( this.repository == null )
+        {
+            throw new BuildException( "The \"repository\" attribute must be specified." );
+        }
+        
+        if( ! this.repository.isDirectory() )
+        {
+            fail( this.repository + " does not exist!" );
+        }
+        
+        final FileSystemSnapshot snapshot = FileSystemSnapshot.get( getProject() );
+        
+        // Unless reuse is set, the fileset reads the repository again, since it may have been changed by
+        // tasks that do not update the snapshot.
+        
+        final SnapshotFileSet fileset = new SnapshotFileSet();
+        fileset.setProject( getProject() );
+        fileset.setDir( this.repository );
+        fileset.setReuse( this.reuse );
+        fileset.setIncludes( this.includes );
+        fileset.setExcludes( this.excludes );
+        
+        final Set<String> excluded = new LinkedHashSet<String>( COMMON_ALGORITHMS );
+        excluded.addAll( this.algorithms );
+        
+        for( String algorithm : excluded )
+        {
+            fileset.setExcludes( "**/*." + extension( algorithm ) + "," + index( algorithm ) );
+        }
+        
+        final String base = this.repository.getAbsoluteFile().toPath().normalize().toString() + File.separator;
+        final List<FileSystemSnapshot.Entry> entries = new ArrayList<FileSystemSnapshot.Entry>();
+        
+        for( FileSystemSnapshot.Entry entry : fileset.entries() )
+        {
+            if( ! entry.getFile().equals( this.cacheFile ) )
+            {
+                entries.add( entry );
+            }
+        }
+        
+        final ChecksumCache cache = ChecksumCache.load( this.cacheFile );
+        final AtomicInteger computed = new AtomicInteger();
+        final List<Map<String,String>> checksums = new ArrayList<Map<String,String>>( entries.size() );
+        
+        if( ! entries.isEmpty() )
+        {
+            final ExecutorService executor = Executors.newFixedThreadPool( Math.min( this.threads, entries.size() ) );
+            
+            try
+            {
+                final List<Future<Map<String,String>>> futures = new ArrayList<Future<Map<String,String>>>();
+                
+                for( final FileSystemSnapshot.Entry entry : entries )
+                {
+                    futures.add
+                    (
+                        executor.submit
+                        (
+                            new Callable<Map<String,String>>()
+                            {
+                                public Map<String,String> call() throws IOException
+                                {
+                                    final String path = path( base, entry );
+                                    final List<String> algorithms = GenChecksumsTask.this.algorithms;
+                                    Map<String,String> checksums = cache.get( path, entry.getSize(), entry.getLastModified(), algorithms );
+                                    
+                                    if( checksums == null )
+                                    {
+                                        checksums = checksums( entry.getFile(), algorithms );
+                                        cache.put( path, entry.getSize(), entry.getLastModified(), checksums );
+                                        computed.incrementAndGet();
+                                    }
+                                    
+                                    if( GenChecksumsTask.this.sidecars )
+                                    {
+                                        final File file = entry.getFile();
+                                        
+                                        for( String algorithm : algorithms )
+                                        {
+                                            final String extension = "." + extension( algorithm );
+                                            final File sidecar = new File( file.getParentFile(), file.getName() + extension );
+                                            FileUtil.write( sidecar, checksums.get( algorithm ) + "  " + file.getName() + "\n" );
+                                            cache.addWritten( path + extension );
+                                        }
+                                    }
+                                    
+                                    return checksums;
+                                }
+                            }
+                        )
+                    );
+                }
+                
+                for( Future<Map<String,String>> future : futures )
+                {
+                    checksums.add( future.get() );
+                }
+            }
+            catch( final InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+                throw new BuildException( e );
+            }
+            catch( final ExecutionException e )
+            {
+                throw new BuildException( e.getCause() );
+            }
+            finally
+            {
+                executor.shutdownNow();
+            }
+        }
+        
+        try
+        {
+            if( this.index )
+            {
+                for( String algorithm : this.algorithms )
+                {
+                    final StringBuilder buf = new StringBuilder();
+                    
+                    for( int i = 0; i < entries.size(); i++ )
+                    {
+                        buf.append( checksums.get( i ).get( algorithm ) ).append( "  " ).append( path( base, entries.get( i ) ) ).append( '\n' );
+                    }
+                    
+                    FileUtil.write( new File( this.repository, index( algorithm ) ), buf.toString() );
+                    cache.addWritten( index( algorithm ) );
+                }
+            }
+            
+            int deleted = 0;
+            
+            for( String path : cache.getPreviouslyWritten() )
+            {
+                if( cache.isWritten( path ) )
+                {
+                    continue;
+                }
+                
+                final File file = new File( this.repository, path );
+                
+                if( isInScope( fileset, path ) )
+                {
+                    if( snapshot.get( file ) != null )
+                    {
+                        FileUtil.delete( file );
+                        deleted++;
+                    }
+                }
+                else if( snapshot.get( file ) != null )
+                {
+                    // Keep track of the file, so that it is deleted if its path is matched again.
+                    
+                    cache.addWritten( path );
+                }
+            }
+            
+            if( this.cacheFile != null )
+            {
+                cache.save( this.cacheFile );
+            }
+            
+            info( "Computed checksums of " + computed.get() + " of " + entries.size() + " files" );
+            
+            if( deleted > 0 )
+            {
+                info( "Deleted " + deleted + " out of date checksum files" );
+            }
+        }
+        catch( final IOException e )
+        {
+            throw new BuildException( e );
+        }
+    }
+    
+    /**
+     * Computes the checksums of a file, reading the file once for all algorithms.
+     *
+     * @return the checksums as hexadecimal strings, keyed by algorithm
+     */
+    
+    private static Map<String,String> checksums( final File file, final List<String> algorithms ) throws IOException
+    {
+        final List<MessageDigest> digests = new ArrayList<MessageDigest>( algorithms.size() );
+        
+        try
+        {
+            for( String algorithm : algorithms )
+            {
+                digests.add( MessageDigest.getInstance( algorithm ) );
+            }
+        }
+        catch( final NoSuchAlgorithmException e )
+        {
+            throw new IllegalStateException( e );
+        }
+        
+        try( FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ ) )
+        {
+            final long size = channel.size();
+            
+            if( size >= MAP_THRESHOLD )
+            {
+                for( long position = 0; position < size; position += MAP_REGION_SIZE )
+                {
+                    final MappedByteBuffer buffer = channel.map( FileChannel.MapMode.READ_ONLY, position, Math.min( MAP_REGION_SIZE, size - position ) );
+                    
+                    for( MessageDigest digest : digests )
+                    {
+                        buffer.rewind();
+                        digest.update( buffer );
+                    }
+                }
+            }
+            else
+            {
+                final ByteBuffer buffer = ByteBuffer.allocate( (int) size );
+                
+                while( buffer.hasRemaining() && channel.read( buffer ) != -1 )
+                {
+                    // Keep reading until the buffer is full.
+                }
+                
+                buffer.flip();
+                
+                for( MessageDigest digest : digests )
+                {
+                    buffer.rewind();
+                    digest.update( buffer );
+                }
+            }
+        }
+        
+        final Map<String,String> checksums = new LinkedHashMap<String,String>();
+        
+        for( int i = 0; i < algorithms.size(); i++ )
+        {
+            final StringBuilder buf = new StringBuilder();
+            
+            for( byte b : digests.get( i ).digest() )
+            {
+                buf.append( Character.forDigit( ( b >> 4 ) & 0xF, 16 ) );
+                buf.append( Character.forDigit( b & 0xF, 16 ) );
+            }
+            
+            checksums.put( algorithms.get( i ), buf.toString() );
+        }
+        
+        return checksums;
+    }
+    
+    /**
+     * Determines whether a checksum file that was written by a previous run is in the scope of this run,
+     * which is the case for the indexes and for the checksum files of paths that match the patterns.
+     */
+    
+    private static boolean isInScope( final SnapshotFileSet fileset, final String path )
+    {
+        if( path.indexOf( '/' ) == -1 && path.endsWith( "SUMS" ) )
+        {
+            return true;
+        }
+        
+        final int dot = path.lastIndexOf( '.' );
+        
+        return ( dot > 0 && fileset.isIncluded( path.substring( 0, dot ) ) );
+    }
+    
+    private static String path( final String base, final FileSystemSnapshot.Entry entry )
+    {
+        return entry.getFile().getPath().substring( base.length() ).replace( File.separatorChar, '/' );
+    }
+    
+    /**
+     * Returns the extension of the checksum files of an algorithm, such as sha256 for SHA-256.
+     */
+    
+    private static String extension( final String algorithm )
+    {
+        return algorithm.toLowerCase( Locale.ENGLISH ).replace( "-", "" );
+    }
+    
+    /**
+     * Returns the name of the index of an algorithm, such as SHA256SUMS for SHA-256.
+     */
+    
+    private static String index( final String algorithm )
+    {
+        return algorithm.replace( "-", "" ) + "SUMS";
+    }
+    
+}
@@ -0,0 +1,50 @@
+/******************************************************************************
+ * Copyright (c) 2016 Oracle
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Konstantin Komissarchik - initial implementation and ongoing maintenance
+ ******************************************************************************/
+
+package org.eclipse.corundum;
+
+import java.io.File;
+
+import org.apache.tools.ant.BuildException;
+
+/**
+ * Invalidates a file or a directory tree in the file system snapshot of the build, so that it is read
+ * again when next used. Use it after a task or a tool that does not update the snapshot has changed
+ * the files, so that later tasks can reuse the snapshot for everything else.
+ *
+ * <pre>
+ * &lt;invalidate-snapshot path="${build.dir}/repository"/&gt;
+ * </pre>
+ *
+ * @author <a href="konstantin@komissarchik.net">Konstantin Komissarchik</a>
+ */
+
+public final class InvalidateSnapshotTask extends AbstractTask
+{
+    private File path;
+
+    public void setPath( final File path )
+    {
+        this.path = path;
+    }
+
+    @Override
+    public void execute()
+    {
+        if( this.path == null )
+        {
+            throw new BuildException( "The \"path\" attribute must be specified." );
+        }
+
+        FileSystemSnapshot.get( getProject() ).invalidate( this.path );
+    }
+
+}
@@ -0,0 +1,229 @@
+/******************************************************************************
+ * Copyright (c) 2016 Oracle
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Konstantin Komissarchik - initial implementation and ongoing maintenance
+ ******************************************************************************/
+
+package org.eclipse.corundum;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Persistent cache of the bundle id, version and exported packages read from each bundle of a
+ * platform. An entry is only used if the size and the modification time of the bundle are unchanged
+ * since the entry was created, so a warm run does not need to open any unchanged bundle. The cache
+ * also records the digest of the bundles.info file of the platform, which is only used to report
+ * that the platform has changed.
+ *
+ * @author <a href="konstantin@komissarchik.net">Konstantin Komissarchik</a>
+ */
+
+public final class InventoryCache extends PersistentCache<InventoryCache.Entry>
+{
+    private static final String HEADER = "# corundum inventory cache 2";
+    private static final String DIGEST_PREFIX = "digest=";
+    
+    private String digest;
+    private int hits;
+    private int misses;
+    
+    private InventoryCache()
+    {
+        super( HEADER );
+    }
+    
+    public static InventoryCache load( final File file )
+    {
+        final InventoryCache cache = new InventoryCache();
+        cache.read( file );
+        return cache;
+    }
+    
+    @Override
+    protected void parse( final String line, final String[] segments )
+    {
+        if( line.startsWith( DIGEST_PREFIX ) )
+        {
+            this.digest = line.substring( DIGEST_PREFIX.length() );
+        }
+        else if( segments.length == 6 )
+        {
+            add( segments[ 0 ], new Entry( Long.parseLong( segments[ 1 ] ), Long.parseLong( segments[ 2 ] ), segments[ 3 ],
+                                           new BundleVersion( segments[ 4 ] ), parseExports( segments[ 5 ] ) ) );
+        }
+    }
+    
+    @Override
+    protected void reset()
+    {
+        this.digest = null;
+    }
+    
+    public static String digest( final File file ) throws IOException
+    {
+        final MessageDigest md;
+        
+        try
+        {
+            md = MessageDigest.getInstance( "SHA-1" );
+        }
+        catch( final NoSuchAlgorithmException e )
+        {
+            throw new IllegalStateException( e );
+        }
+        
+        try( InputStream in = new FileInputStream( file ) )
+        {
+            final byte[] buffer = new byte[ 16 * 1024 ];
+            
+            for( int count = in.read( buffer ); count != -1; count = in.read( buffer ) )
+            {
+                md.update( buffer, 0, count );
+            }
+        }
+        
+        final StringBuilder buf = new StringBuilder();
+        
+        for( byte b : md.digest() )
+        {
+            buf.append( Character.forDigit( ( b >> 4 ) & 0xF, 16 ) );
+            buf.append( Character.forDigit( b & 0xF, 16 ) );
+        }
+        
+        return buf.toString();
+    }
+    
+    public String getDigest()
+    {
+        return this.digest;
+    }
+    
+    public void setDigest( final String digest )
+    {
+        this.digest = digest;
+    }
+    
+    public int getHits()
+    {
+        return this.hits;
+    }
+    
+    public int getMisses()
+    {
+        return this.misses;
+    }
+    
+    /**
+     * Returns the cached bundle for the specified location or null if there is no entry or the bundle
+     * has changed since the entry was created.
+     */
+    
+    public BundleInfo get( final File location )
+    {
+        final String path = location.getAbsolutePath();
+        final Entry entry = lookup( path );
+        
+        if( entry != null && entry.size == location.length() && entry.modified == location.lastModified() )
+        {
+            this.hits++;
+            use( path, entry );
+            return new BundleInfo( location, entry.id, entry.version, entry.exports );
+        }
+        
+        this.misses++;
+        return null;
+    }
+    
+    public void put( final BundleInfo bundle )
+    {
+        final File location = bundle.getLocation();
+        final Entry entry = new Entry( location.length(), location.lastModified(), bundle.getId(), bundle.getVersion(),
+                                       bundle.getExportedPackages() );
+        use( location.getAbsolutePath(), entry );
+    }
+    
+    @Override
+    protected void writePreamble( final StringBuilder buf )
+    {
+        if( this.digest != null )
+        {
+            buf.append( DIGEST_PREFIX ).append( this.digest ).append( '\n' );
+        }
+    }
+    
+    @Override
+    protected void write( final StringBuilder buf, final String path, final Entry entry )
+    {
+        buf.append( path ).append( SEPARATOR ).append( entry.size ).append( SEPARATOR ).append( entry.modified )
+           .append( SEPARATOR ).append( entry.id ).append( SEPARATOR ).append( entry.version ).append( SEPARATOR );
+        
+        boolean first = true;
+        
+        for( Map.Entry<String,BundleVersion> export : entry.exports.entrySet() )
+        {
+            if( ! first )
+            {
+                buf.append( ',' );
+            }
+            
+            buf.append( export.getKey() ).append( '=' ).append( export.getValue() );
+            first = false;
+        }
+        
+        buf.append( '\n' );
+    }
+    
+    private static Map<String,BundleVersion> parseExports( final String string )
+    {
+        final Map<String,BundleVersion> exports = new LinkedHashMap<String,BundleVersion>();
+        
+        if( string.length() > 0 )
+        {
+            for( String export : string.split( "," ) )
+            {
+                final int equals = export.indexOf( '=' );
+                
+                if( equals == -1 )
+                {
+                    throw new IllegalArgumentException( export );
+                }
+                
+                exports.put( export.substring( 0, equals ), new BundleVersion( export.substring( equals + 1 ) ) );
+            }
+        }
+        
+        return exports;
+    }
+    
+    static final class Entry
+    {
+        private final long size;
+        private final long modified;
+        private final String id;
+        private final BundleVersion version;
+        private final Map<String,BundleVersion> exports;
+        
+        public Entry( final long size, final long modified, final String id, final BundleVersion version,
+                      final Map<String,BundleVersion> exports )
+        {
+            this.size = size;
+            this.modified = modified;
+            this.id = id;
+            this.version = version;
+            this.exports = exports;
+        }
+    }
+    
+}
@@ -13,7 +13,6 @@ package org.eclipse.corundum;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * @author <a href="konstantin@komissarchik.net">Konstantin Komissarchik</a>
@@ -22,13 +21,13 @@ import java.util.concurrent.CopyOnWriteArrayList;
 public final class ManifestBundlesListEntry
 {
     private String bundleId;
-    private final List<String> attributes = new CopyOnWriteArrayList<String>();
+    private final List<String> attributes;
     
     public ManifestBundlesListEntry( String bundleId,
                                      final List<String> attributes )
     {
         this.bundleId = bundleId;
-        this.attributes.addAll( attributes );
+        this.attributes = new ArrayList<String>( attributes );
     }
     
     public String bundle()
@@ -58,94 +57,22 @@ public final class ManifestBundlesListEntry
     
     public static List<ManifestBundlesListEntry> parse( final String string )
     {
-        final List<ManifestBundlesListEntry> entries = new ArrayList<ManifestBundlesListEntry>();
-        final int length = string.length();
-        final MutableReference<Integer> position = new MutableReference<Integer>( 0 );
+        final List<ManifestClause> clauses = ManifestHeaderTokenizer.tokenize( string );
+        final List<ManifestBundlesListEntry> entries = new ArrayList<ManifestBundlesListEntry>( clauses.size() );
         
-        while( position.get() < length )
+        for( ManifestClause clause : clauses )
         {
-            final ManifestBundlesListEntry entry = parse( string, position );
+            final int count = clause.parameterCount();
+            final List<String> attributes = new ArrayList<String>( count + 1 );
             
-            if( entry != null )
+            for( int i = 0; i < count; i++ )
             {
-                entries.add( entry );
+                attributes.add( clause.parameter( i ) );
             }
-        }
-        
-        return entries;
-    }
-    
-    private static ManifestBundlesListEntry parse( final String string,
-                                                   final MutableReference<Integer> position )
-    {
-        int stopChar;
-        
-        final StringBuilder bundleIdBuffer = new StringBuilder();
-        stopChar = readUntil( string, position, bundleIdBuffer, ";," );
-        
-        if( stopChar == -1 )
-        {
-            return null;
-        }
-        
-        final List<String> attributes = new ArrayList<String>();
-        
-        while( stopChar == ';' )
-        {
-            final StringBuilder attribute = new StringBuilder();
-            stopChar = readUntil( string, position, attribute, ";," );
-            attributes.add( attribute.toString() );
-        }
-        
-        final String bundleId = bundleIdBuffer.toString().trim();
-        
-        if( bundleId.length() > 0 )
-        {
-            return new ManifestBundlesListEntry( bundleId, attributes );
-        }
-        else
-        {
-            return null;
-        }
-    }
-    
-    private static int readUntil( final String string,
-                                  final MutableReference<Integer> position,
-                                  final StringBuilder buffer,
-                                  final String stopChars )
-    {
-        int pos = position.get();
-        int ch = -1;
-        boolean stop = false;
-        
-        for( int len = string.length(); pos < len && ! stop; pos++ )
-        {
-            ch = string.charAt( pos );
             
-            if( stopChars.indexOf( ch ) != -1 )
-            {
-                stop = true;
-            }
-            else
-            {
-                buffer.append( (char) ch );
-                
-                if( ch == '"' )
-                {
-                    position.set( pos + 1 );
-                    
-                    if( readUntil( string, position, buffer, "\"" ) != -1 )
-                    {
-                        buffer.append( '"' );
-                    }
-                    
-                    pos = position.get() - 1;
-                }
-            }
+            entries.add( new ManifestBundlesListEntry( clause.path(), attributes ) );
         }
         
-        position.set( pos );
-        
-        return ch;
+        return entries;
     }
 }
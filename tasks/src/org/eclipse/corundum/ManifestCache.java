@@ -0,0 +1,133 @@
+/******************************************************************************
+ * Copyright (c) 2016 Oracle
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Konstantin Komissarchik - initial implementation and ongoing maintenance
+ ******************************************************************************/
+
+package org.eclipse.corundum;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.tools.ant.Project;
+
+/**
+ * Build-scoped cache of parsed bundle manifests, shared by all tasks through a project reference.
+ * Entries are keyed by the file that holds the manifest (the jar or the META-INF/MANIFEST.MF file of
+ * a bundle directory) and are only used while the size and the modification time of that file are
+ * unchanged. Manifests written by ManifestUtil are also invalidated explicitly, since a rewrite does
+ * not necessarily change either.
+ *
+ * @author <a href="konstantin@komissarchik.net">Konstantin Komissarchik</a>
+ */
+
+public final class ManifestCache
+{
+    private static final String REFERENCE_ID = "org.eclipse.corundum.manifest.cache";
+    
+    private static final Set<ManifestCache> INSTANCES
+        = Collections.synchronizedSet( Collections.newSetFromMap( new WeakHashMap<ManifestCache,Boolean>() ) );
+    
+    private final ConcurrentMap<File,Entry> entries = new ConcurrentHashMap<File,Entry>();
+    
+    public ManifestCache()
+    {
+        INSTANCES.add( this );
+    }
+    
+    public static ManifestCache get( final Project project )
+    {
+        synchronized( project )
+        {
+            ManifestCache cache = project.getReference( REFERENCE_ID );
+            
+            if( cache == null )
+            {
+                cache = new ManifestCache();
+                project.addReference( REFERENCE_ID, cache );
+            }
+            
+            return cache;
+        }
+    }
+    
+    public Map<String,String> read( final File location ) throws IOException
+    {
+        final File file = key( location );
+        final long size = file.length();
+        final long modified = file.lastModified();
+        
+        Entry entry = this.entries.get( file );
+        
+        if( entry == null || entry.size != size || entry.modified != modified )
+        {
+            entry = new Entry( size, modified, Collections.unmodifiableMap( ManifestUtil.readManifest( location ) ) );
+            this.entries.put( file, entry );
+        }
+        
+        return entry.manifest;
+    }
+    
+    public String read( final File location, final String key ) throws IOException
+    {
+        return read( location ).get( key );
+    }
+    
+    public void invalidate( final File location )
+    {
+        this.entries.remove( key( location ) );
+    }
+    
+    /**
+     * Invalidates the entry for the specified file in all live caches.
+     */
+    
+    static void invalidateAll( final File location )
+    {
+        final List<ManifestCache> caches;
+        
+        synchronized( INSTANCES )
+        {
+            caches = new ArrayList<ManifestCache>( INSTANCES );
+        }
+        
+        for( ManifestCache cache : caches )
+        {
+            cache.invalidate( location );
+        }
+    }
+    
+    private static File key( final File location )
+    {
+        final File file = ( location.isDirectory() ? new File( location, ManifestUtil.MANIFEST_PATH ) : location );
+        return file.getAbsoluteFile();
+    }
+    
+    private static final class Entry
+    {
+        private final long size;
+        private final long modified;
+        private final Map<String,String> manifest;
+        
+        public Entry( final long size, final long modified, final Map<String,String> manifest )
+        {
+            this.size = size;
+            this.modified = modified;
+            this.manifest = manifest;
+        }
+    }
+    
+}
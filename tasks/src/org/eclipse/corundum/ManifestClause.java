@@ -0,0 +1,523 @@
+/******************************************************************************
+ * Copyright (c) 2016 Oracle
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Konstantin Komissarchik - initial implementation and ongoing maintenance
+ ******************************************************************************/
+
+package org.eclipse.corundum;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A clause of a manifest header such as Require-Bundle, Import-Package or Export-Package. The clause
+ * does not copy any text. It holds the header and the offsets of its path and of its parameters, which
+ * are only turned into strings on request.
+ *
+ * <p>The attributes and directives of the clause are parsed on first use and can be looked up by name.
+ * Setting an attribute or a directive records an edit of the source text, so that the rest of the
+ * clause is emitted exactly as it was.</p>
+ *
+ * @author <a href="konstantin@komissarchik.net">Konstantin Komissarchik</a>
+ */
+
+public final class ManifestClause
+{
+    private final CharSequence header;
+    private final int start;
+    private final int end;
+    
+    // Start and end offsets of the path, followed by those of each parameter.
+    
+    private final int[] spans;
+    
+    private int pathCount;
+    private List<Parameter> parameters;
+    private Map<String,Attribute> attributes;
+    private Map<String,Directive> directives;
+    private int insertions;
+    private List<Edit> edits;
+    
+    ManifestClause( final CharSequence header,
+                    final int start,
+                    final int end,
+                    final int[] spans )
+    {
+        this.header = header;
+        this.start = start;
+        this.end = end;
+        this.spans = spans;
+    }
+    
+    public CharSequence header()
+    {
+        return this.header;
+    }
+    
+    public int start()
+    {
+        return this.start;
+    }
+    
+    public int end()
+    {
+        return this.end;
+    }
+    
+    /**
+     * Returns the path of the clause, which is the bundle symbolic name or the package name, with
+     * surrounding whitespace removed.
+     */
+    
+    public String path()
+    {
+        return this.header.subSequence( this.spans[ 0 ], this.spans[ 1 ] ).toString();
+    }
+    
+    /**
+     * Returns the paths of the clause. A clause can list several paths, such as several packages that
+     * share the same attributes, in which case they precede the attributes and directives.
+     */
+    
+    public List<String> paths()
+    {
+        parse();
+        
+        final List<String> paths = new ArrayList<String>( this.pathCount + 1 );
+        
+        paths.add( path() );
+        
+        for( int i = 0; i < this.pathCount; i++ )
+        {
+            final String path = trim( parameterStart( i ), parameterEnd( i ) );
+            
+            if( path.length() > 0 )
+            {
+                paths.add( path );
+            }
+        }
+        
+        return paths;
+    }
+    
+    public int parameterCount()
+    {
+        return this.spans.length / 2 - 1;
+    }
+    
+    /**
+     * Returns a parameter of the clause exactly as it appears in the header, without the separating
+     * semicolon.
+     */
+    
+    public String parameter( final int index )
+    {
+        return this.header.subSequence( parameterStart( index ), parameterEnd( index ) ).toString();
+    }
+    
+    public int parameterStart( final int index )
+    {
+        return this.spans[ index * 2 + 2 ];
+    }
+    
+    public int parameterEnd( final int index )
+    {
+        return this.spans[ index * 2 + 3 ];
+    }
+    
+    /**
+     * Returns the attributes and directives of the clause in the order in which they appear. Parameters
+     * that are neither, such as empty ones, are not included.
+     */
+    
+    public List<Parameter> parameters()
+    {
+        parse();
+        
+        return Collections.unmodifiableList( this.parameters );
+    }
+    
+    public Attribute attribute( final String name )
+    {
+        parse();
+        
+        return this.attributes.get( name );
+    }
+    
+    public Directive directive( final String name )
+    {
+        parse();
+        
+        return this.directives.get( name );
+    }
+    
+    /**
+     * Sets the value of an attribute. An existing attribute is changed in place, otherwise the attribute
+     * is added after the last parameter.
+     */
+    
+    public Attribute setAttribute( final String name, final String value )
+    {
+        parse();
+        
+        return set( this.attributes, new Attribute( name ), value, false );
+    }
+    
+    /**
+     * Sets the value of an attribute. An existing attribute is changed in place, otherwise the attribute
+     * is added after the paths, before the first attribute or directive.
+     */
+    
+    public Attribute insertAttribute( final String name, final String value )
+    {
+        parse();
+        
+        return set( this.attributes, new Attribute( name ), value, true );
+    }
+    
+    public Directive setDirective( final String name, final String value )
+    {
+        parse();
+        
+        return set( this.directives, new Directive( name ), value, false );
+    }
+    
+    public boolean isModified()
+    {
+        return ( this.edits != null );
+    }
+    
+    /**
+     * Returns the text of the clause as it appears in the header, with any changes applied.
+     */
+    
+    @Override
+    public String toString()
+    {
+        if( this.edits == null )
+        {
+            return this.header.subSequence( this.start, this.end ).toString();
+        }
+        
+        final StringBuilder buf = new StringBuilder( this.end - this.start + 32 );
+        
+        append( buf );
+        
+        return buf.toString();
+    }
+    
+    void append( final StringBuilder buf )
+    {
+        int copied = this.start;
+        
+        if( this.edits != null )
+        {
+            for( Edit edit : this.edits )
+            {
+                buf.append( this.header, copied, edit.start );
+                buf.append( edit.text );
+                copied = edit.end;
+            }
+        }
+        
+        buf.append( this.header, copied, this.end );
+    }
+    
+    private void parse()
+    {
+        if( this.parameters != null )
+        {
+            return;
+        }
+        
+        final int count = parameterCount();
+        
+        this.parameters = new ArrayList<Parameter>( count + 1 );
+        this.attributes = new HashMap<String,Attribute>();
+        this.directives = new HashMap<String,Directive>();
+        
+        for( int i = 0; i < count; i++ )
+        {
+            int start = parameterStart( i );
+            int end = parameterEnd( i );
+            int equals = start;
+            
+            while( equals < end && this.header.charAt( equals ) != '=' )
+            {
+                equals++;
+            }
+            
+            if( equals == end )
+            {
+                if( this.parameters.isEmpty() )
+                {
+                    this.pathCount = i + 1;
+                }
+                
+                continue;
+            }
+            
+            final boolean directive = ( equals > start && this.header.charAt( equals - 1 ) == ':' );
+            int nameEnd = ( directive ? equals - 1 : equals );
+            
+            if( ! directive )
+            {
+                // Typed attributes are written as name:type=value.
+                
+                for( int j = start; j < nameEnd; j++ )
+                {
+                    if( this.header.charAt( j ) == ':' )
+                    {
+                        nameEnd = j;
+                        break;
+                    }
+                }
+            }
+            
+            final String name = trim( start, nameEnd );
+            
+            if( name.length() == 0 )
+            {
+                continue;
+            }
+            
+            start = equals + 1;
+            
+            while( start < end && this.header.charAt( start ) <= ' ' )
+            {
+                start++;
+            }
+            
+            while( end > start && this.header.charAt( end - 1 ) <= ' ' )
+            {
+                end--;
+            }
+            
+            final Parameter parameter = ( directive ? new Directive( name ) : new Attribute( name ) );
+            
+            parameter.valueStart = start;
+            parameter.valueEnd = end;
+            
+            if( end - start >= 2 && this.header.charAt( start ) == '"' && this.header.charAt( end - 1 ) == '"' )
+            {
+                parameter.value = this.header.subSequence( start + 1, end - 1 ).toString();
+            }
+            else
+            {
+                parameter.value = this.header.subSequence( start, end ).toString();
+            }
+            
+            this.parameters.add( parameter );
+            
+            if( directive )
+            {
+                putIfAbsent( this.directives, (Directive) parameter );
+            }
+            else
+            {
+                putIfAbsent( this.attributes, (Attribute) parameter );
+            }
+        }
+    }
+    
+    private static <T extends Parameter> void putIfAbsent( final Map<String,T> map, final T parameter )
+    {
+        if( ! map.containsKey( parameter.name ) )
+        {
+            map.put( parameter.name, parameter );
+        }
+    }
+    
+    private String trim( int start, int end )
+    {
+        while( start < end && this.header.charAt( start ) <= ' ' )
+        {
+            start++;
+        }
+        
+        while( end > start && this.header.charAt( end - 1 ) <= ' ' )
+        {
+            end--;
+        }
+        
+        return this.header.subSequence( start, end ).toString();
+    }
+    
+    private <T extends Parameter> T set( final Map<String,T> map,
+                                         final T added,
+                                         final String value,
+                                         final boolean first )
+    {
+        if( value == null )
+        {
+            throw new IllegalArgumentException();
+        }
+        
+        final String quoted = "\"" + value + "\"";
+        T parameter = map.get( added.name );
+        
+        if( parameter == null )
+        {
+            parameter = added;
+            parameter.value = value;
+            parameter.edit = new Edit( ";" + added.name + added.separator() + quoted );
+            
+            final int position;
+            
+            if( parameterCount() == 0 || ( first && this.pathCount == 0 ) )
+            {
+                position = this.spans[ 1 ];
+            }
+            else
+            {
+                final int last = ( first ? this.pathCount : parameterCount() ) - 1;
+                int end = parameterEnd( last );
+                
+                while( end > parameterStart( last ) && this.header.charAt( end - 1 ) <= ' ' )
+                {
+                    end--;
+                }
+                
+                position = end;
+            }
+            
+            addEdit( position, position, parameter.edit );
+            
+            if( first )
+            {
+                this.parameters.add( this.insertions++, parameter );
+            }
+            else
+            {
+                this.parameters.add( parameter );
+            }
+            
+            map.put( parameter.name, parameter );
+        }
+        else if( ! value.equals( parameter.value ) )
+        {
+            parameter.value = value;
+            
+            if( parameter.edit == null )
+            {
+                parameter.edit = new Edit( quoted );
+                addEdit( parameter.valueStart, parameter.valueEnd, parameter.edit );
+            }
+            else if( parameter.valueStart == -1 )
+            {
+                parameter.edit.text = ";" + parameter.name + parameter.separator() + quoted;
+            }
+            else
+            {
+                parameter.edit.text = quoted;
+            }
+        }
+        
+        return parameter;
+    }
+    
+    private void addEdit( final int start, final int end, final Edit edit )
+    {
+        if( this.edits == null )
+        {
+            this.edits = new ArrayList<Edit>( 2 );
+        }
+        
+        int index = this.edits.size();
+        
+        while( index > 0 && this.edits.get( index - 1 ).start > start )
+        {
+            index--;
+        }
+        
+        edit.start = start;
+        edit.end = end;
+        
+        this.edits.add( index, edit );
+    }
+    
+    public static abstract class Parameter
+    {
+        final String name;
+        String value;
+        int valueStart = -1;
+        int valueEnd = -1;
+        Edit edit;
+        
+        Parameter( final String name )
+        {
+            this.name = name;
+        }
+        
+        public String name()
+        {
+            return this.name;
+        }
+        
+        /**
+         * Returns the value of the parameter with surrounding whitespace and quotes removed.
+         */
+        
+        public String value()
+        {
+            return this.value;
+        }
+        
+        abstract String separator();
+        
+        @Override
+        public String toString()
+        {
+            return this.name + separator() + this.value;
+        }
+    }
+    
+    public static final class Attribute extends Parameter
+    {
+        Attribute( final String name )
+        {
+            super( name );
+        }
+        
+        @Override
+        String separator()
+        {
+            return "=";
+        }
+    }
+    
+    public static final class Directive extends Parameter
+    {
+        Directive( final String name )
+        {
+            super( name );
+        }
+        
+        @Override
+        String separator()
+        {
+            return ":=";
+        }
+    }
+    
+    private static final class Edit
+    {
+        private int start;
+        private int end;
+        private String text;
+        
+        public Edit( final String text )
+        {
+            this.text = text;
+        }
+    }
+    
+}
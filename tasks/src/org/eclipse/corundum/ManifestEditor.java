@@ -0,0 +1,406 @@
+/******************************************************************************
+ * Copyright (c) 2016 Oracle
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Konstantin Komissarchik - initial implementation and ongoing maintenance
+ ******************************************************************************/
+
+package org.eclipse.corundum;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Edits the main section of a manifest in place. Headers keep their original order and formatting.
+ * Only headers whose values have changed are rewritten, wrapped at 72 bytes and using the line
+ * terminator of the original manifest. New headers are appended to the end of the main section and
+ * everything after the main section is preserved as is.
+ *
+ * @author <a href="konstantin@komissarchik.net">Konstantin Komissarchik</a>
+ */
+
+public final class ManifestEditor
+{
+    private static final int MAX_LINE_LENGTH = 72;
+    private static final byte[] CRLF = { '\r', '\n' };
+    
+    private final byte[] content;
+    private final List<Header> headers = new ArrayList<Header>();
+    private final int mainEnd;
+    private final byte[] newline;
+    
+    public ManifestEditor( final byte[] content ) throws IOException
+    {
+        this.content = content;
+        
+        final int length = content.length;
+        byte[] newline = null;
+        Header header = null;
+        int position = 0;
+        
+        while( position < length )
+        {
+            final int lineStart = position;
+            int lineEnd = position;
+            
+            while( lineEnd < length && content[ lineEnd ] != '\r' && content[ lineEnd ] != '\n' )
+            {
+                lineEnd++;
+            }
+            
+            int next = lineEnd;
+            
+            if( next < length )
+            {
+                next += ( content[ next ] == '\r' && next + 1 < length && content[ next + 1 ] == '\n' ? 2 : 1 );
+                
+                if( newline == null )
+                {
+                    newline = new byte[ next - lineEnd ];
+                    System.arraycopy( content, lineEnd, newline, 0, newline.length );
+                }
+            }
+            
+            if( lineEnd == lineStart )
+            {
+                break;
+            }
+            
+            if( content[ lineStart ] == ' ' )
+            {
+                if( header == null )
+                {
+                    throw new IOException( "Misplaced continuation line in manifest" );
+                }
+                
+                header.lines.add( new int[] { lineStart + 1, lineEnd } );
+            }
+            else
+            {
+                int colon = lineStart;
+                
+                while( colon < lineEnd && content[ colon ] != ':' )
+                {
+                    colon++;
+                }
+                
+                if( colon == lineStart || colon == lineEnd )
+                {
+                    throw new IOException( "Invalid header field in manifest" );
+                }
+                
+                final int valueStart = ( colon + 1 < lineEnd && content[ colon + 1 ] == ' ' ? colon + 2 : colon + 1 );
+                
+                header = new Header( new String( content, lineStart, colon - lineStart, StandardCharsets.US_ASCII ), lineStart );
+                header.lines.add( new int[] { valueStart, lineEnd } );
+                this.headers.add( header );
+            }
+            
+            header.end = next;
+            position = next;
+        }
+        
+        this.mainEnd = ( header == null ? 0 : header.end );
+        this.newline = ( newline == null ? CRLF : newline );
+    }
+    
+    public static ManifestEditor read( final File manifestFile ) throws IOException
+    {
+        return new ManifestEditor( manifestFile.exists() ? Files.readAllBytes( manifestFile.toPath() ) : new byte[ 0 ] );
+    }
+    
+    private Header find( final String name )
+    {
+        for( Header header : this.headers )
+        {
+            if( header.name.equalsIgnoreCase( name ) )
+            {
+                return header;
+            }
+        }
+        
+        return null;
+    }
+    
+    public String get( final String name )
+    {
+        final Header header = find( name );
+        
+        if( header == null || header.removed )
+        {
+            return null;
+        }
+        
+        return header.value( this.content );
+    }
+    
+    /**
+     * Sets the value of a header. A null value removes the header. Setting a header to the value it
+     * was read with leaves the original bytes untouched.
+     */
+    
+    public void set( final String name, final String value )
+    {
+        Header header = find( name );
+        
+        if( header == null )
+        {
+            if( value == null )
+            {
+                return;
+            }
+            
+            header = new Header( name, -1 );
+            this.headers.add( header );
+        }
+        
+        if( header.start != -1 && value != null && value.equals( header.original( this.content ) ) )
+        {
+            header.replacement = null;
+            header.removed = false;
+        }
+        else
+        {
+            header.replacement = value;
+            header.removed = ( value == null );
+        }
+    }
+    
+    public void set( final Map<String,String> values )
+    {
+        for( Map.Entry<String,String> entry : values.entrySet() )
+        {
+            set( entry.getKey(), entry.getValue() );
+        }
+    }
+    
+    public boolean isModified()
+    {
+        for( Header header : this.headers )
+        {
+            if( header.replacement != null || header.removed )
+            {
+                return true;
+            }
+        }
+        
+        return false;
+    }
+    
+    /**
+     * Returns the names of the headers that have been changed, added or removed, in manifest order.
+     */
+    
+    public List<String> getModifiedHeaders()
+    {
+        final List<String> names = new ArrayList<String>();
+        
+        for( Header header : this.headers )
+        {
+            if( ( header.replacement != null || header.removed ) && ! ( header.start == -1 && header.removed ) )
+            {
+                names.add( header.name );
+            }
+        }
+        
+        return names;
+    }
+    
+    /**
+     * Returns the value of a header as it was read, regardless of any changes, or null if the header
+     * was not present.
+     */
+    
+    public String getOriginal( final String name )
+    {
+        final Header header = find( name );
+        
+        if( header == null || header.start == -1 )
+        {
+            return null;
+        }
+        
+        return header.original( this.content );
+    }
+    
+    public byte[] toByteArray()
+    {
+        if( ! isModified() )
+        {
+            return this.content.clone();
+        }
+        
+        final ByteArrayOutputStream out = new ByteArrayOutputStream( this.content.length + 256 );
+        int copied = 0;
+        
+        // Whether the last write ended with a line break, or nothing has been written yet.
+        
+        boolean terminated = true;
+        
+        for( Header header : this.headers )
+        {
+            if( header.start == -1 )
+            {
+                if( ! header.removed )
+                {
+                    if( copied < this.mainEnd )
+                    {
+                        out.write( this.content, copied, this.mainEnd - copied );
+                        copied = this.mainEnd;
+                        terminated = isLineBreak( this.content[ copied - 1 ] );
+                    }
+                    
+                    if( ! terminated )
+                    {
+                        out.write( this.newline, 0, this.newline.length );
+                    }
+                    
+                    writeHeader( out, header.name, header.replacement );
+                    terminated = true;
+                }
+            }
+            else if( header.replacement != null || header.removed )
+            {
+                if( copied < header.start )
+                {
+                    out.write( this.content, copied, header.start - copied );
+                    terminated = isLineBreak( this.content[ header.start - 1 ] );
+                }
+                
+                copied = header.end;
+                
+                if( ! header.removed )
+                {
+                    writeHeader( out, header.name, header.replacement );
+                    terminated = true;
+                }
+            }
+        }
+        
+        if( copied < this.content.length )
+        {
+            out.write( this.content, copied, this.content.length - copied );
+            terminated = isLineBreak( this.content[ this.content.length - 1 ] );
+        }
+        
+        if( this.mainEnd == this.content.length )
+        {
+            // The main section must be followed by an empty line.
+            
+            if( ! terminated )
+            {
+                out.write( this.newline, 0, this.newline.length );
+            }
+            
+            out.write( this.newline, 0, this.newline.length );
+        }
+        
+        return out.toByteArray();
+    }
+    
+    /**
+     * Writes the manifest, unless the file already has identical content.
+     *
+     * @return true if the file was written
+     */
+    
+    public boolean write( final File manifestFile ) throws IOException
+    {
+        if( manifestFile.exists() && ! isModified() )
+        {
+            return false;
+        }
+        
+        return FileUtil.write( manifestFile, toByteArray() );
+    }
+    
+    private static boolean isLineBreak( final byte b )
+    {
+        return ( b == '\n' || b == '\r' );
+    }
+    
+    private void writeHeader( final ByteArrayOutputStream out, final String name, final String value )
+    {
+        final byte[] line = ( name + ": " + value ).getBytes( StandardCharsets.UTF_8 );
+        int position = 0;
+        int limit = MAX_LINE_LENGTH;
+        
+        while( position < line.length )
+        {
+            int end = Math.min( position + limit, line.length );
+            
+            // Do not split a multi-byte character across lines.
+            
+            while( end < line.length && end > position + 1 && ( line[ end ] & 0xC0 ) == 0x80 )
+            {
+                end--;
+            }
+            
+            if( position > 0 )
+            {
+                out.write( ' ' );
+            }
+            
+            out.write( line, position, end - position );
+            out.write( this.newline, 0, this.newline.length );
+            
+            position = end;
+            limit = MAX_LINE_LENGTH - 1;
+        }
+    }
+    
+    private static final class Header
+    {
+        private final String name;
+        private final int start;
+        private final List<int[]> lines = new ArrayList<int[]>( 1 );
+        private int end;
+        private String replacement;
+        private boolean removed;
+        
+        public Header( final String name, final int start )
+        {
+            this.name = name;
+            this.start = start;
+        }
+        
+        public String value( final byte[] content )
+        {
+            if( this.replacement != null )
+            {
+                return this.replacement;
+            }
+            
+            return original( content );
+        }
+        
+        public String original( final byte[] content )
+        {
+            if( this.lines.size() == 1 )
+            {
+                final int[] line = this.lines.get( 0 );
+                return new String( content, line[ 0 ], line[ 1 ] - line[ 0 ], StandardCharsets.UTF_8 );
+            }
+            
+            final ByteArrayOutputStream value = new ByteArrayOutputStream();
+            
+            for( int[] line : this.lines )
+            {
+                value.write( content, line[ 0 ], line[ 1 ] - line[ 0 ] );
+            }
+            
+            return new String( value.toByteArray(), StandardCharsets.UTF_8 );
+        }
+    }
+    
+}
@@ -0,0 +1,105 @@
+/******************************************************************************
+ * Copyright (c) 2016 Oracle
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Konstantin Komissarchik - initial implementation and ongoing maintenance
+ ******************************************************************************/
+
+package org.eclipse.corundum;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A manifest header such as Require-Bundle, Import-Package or Export-Package, parsed into clauses that
+ * can be changed individually. The header round-trips losslessly. Clauses that have not been changed,
+ * as well as the separators and whitespace between clauses, are emitted from the original text.
+ *
+ * @author <a href="konstantin@komissarchik.net">Konstantin Komissarchik</a>
+ */
+
+public final class ManifestHeader
+{
+    private final String text;
+    private final List<ManifestClause> clauses;
+    private Map<String,ManifestClause> clausesByPath;
+    
+    public ManifestHeader( final String text )
+    {
+        this.text = text;
+        this.clauses = Collections.unmodifiableList( ManifestHeaderTokenizer.tokenize( text ) );
+    }
+    
+    public List<ManifestClause> clauses()
+    {
+        return this.clauses;
+    }
+    
+    /**
+     * Returns the first clause with the specified path among its paths or null if there is no such clause.
+     */
+    
+    public ManifestClause clause( final String path )
+    {
+        if( this.clausesByPath == null )
+        {
+            this.clausesByPath = new HashMap<String,ManifestClause>();
+            
+            for( ManifestClause clause : this.clauses )
+            {
+                for( String clausePath : clause.paths() )
+                {
+                    if( ! this.clausesByPath.containsKey( clausePath ) )
+                    {
+                        this.clausesByPath.put( clausePath, clause );
+                    }
+                }
+            }
+        }
+        
+        return this.clausesByPath.get( path );
+    }
+    
+    public boolean isModified()
+    {
+        for( ManifestClause clause : this.clauses )
+        {
+            if( clause.isModified() )
+            {
+                return true;
+            }
+        }
+        
+        return false;
+    }
+    
+    @Override
+    public String toString()
+    {
+        if( ! isModified() )
+        {
+            return this.text;
+        }
+        
+        final StringBuilder buf = new StringBuilder( this.text.length() + 64 );
+        int copied = 0;
+        
+        for( ManifestClause clause : this.clauses )
+        {
+            buf.append( this.text, copied, clause.start() );
+            clause.append( buf );
+            copied = clause.end();
+        }
+        
+        buf.append( this.text, copied, this.text.length() );
+        
+        return buf.toString();
+    }
+    
+}
@@ -0,0 +1,115 @@
+/******************************************************************************
+ * Copyright (c) 2016 Oracle
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Konstantin Komissarchik - initial implementation and ongoing maintenance
+ ******************************************************************************/
+
+package org.eclipse.corundum;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Splits a manifest header such as Require-Bundle, Import-Package or Export-Package into clauses.
+ * Clauses are separated by commas and parameters by semicolons, except inside quoted strings. The
+ * header is scanned once with a primitive cursor and the resulting clauses only record offsets into
+ * the header. Clauses with an empty path are skipped.
+ *
+ * @author <a href="konstantin@komissarchik.net">Konstantin Komissarchik</a>
+ */
+
+public final class ManifestHeaderTokenizer
+{
+    private ManifestHeaderTokenizer() {}
+    
+    public static List<ManifestClause> tokenize( final CharSequence header )
+    {
+        final List<ManifestClause> clauses = new ArrayList<ManifestClause>();
+        final int length = header.length();
+        int[] spans = new int[ 8 ];
+        int position = 0;
+        
+        while( position < length )
+        {
+            final int start = position;
+            int segment = position;
+            int count = 0;
+            boolean quoted = false;
+            boolean last = true;
+            
+            for( ; position < length; position++ )
+            {
+                final char ch = header.charAt( position );
+                
+                if( ch == '"' )
+                {
+                    quoted = ! quoted;
+                }
+                else if( ! quoted && ( ch == ';' || ch == ',' ) )
+                {
+                    if( count + 2 > spans.length )
+                    {
+                        spans = Arrays.copyOf( spans, spans.length * 2 );
+                    }
+                    
+                    spans[ count++ ] = segment;
+                    spans[ count++ ] = position;
+                    segment = position + 1;
+                    
+                    if( ch == ',' )
+                    {
+                        last = false;
+                        break;
+                    }
+                }
+            }
+            
+            final int end = position;
+            
+            if( last )
+            {
+                if( count + 2 > spans.length )
+                {
+                    spans = Arrays.copyOf( spans, spans.length * 2 );
+                }
+                
+                spans[ count++ ] = segment;
+                spans[ count++ ] = length;
+            }
+            
+            position++;
+            
+            int pathStart = spans[ 0 ];
+            int pathEnd = spans[ 1 ];
+            
+            while( pathStart < pathEnd && header.charAt( pathStart ) <= ' ' )
+            {
+                pathStart++;
+            }
+            
+            while( pathEnd > pathStart && header.charAt( pathEnd - 1 ) <= ' ' )
+            {
+                pathEnd--;
+            }
+            
+            if( pathStart < pathEnd )
+            {
+                final int[] clauseSpans = Arrays.copyOf( spans, count );
+                
+                clauseSpans[ 0 ] = pathStart;
+                clauseSpans[ 1 ] = pathEnd;
+                
+                clauses.add( new ManifestClause( header, start, end, clauseSpans ) );
+            }
+        }
+        
+        return clauses;
+    }
+    
+}
@@ -0,0 +1,464 @@
+/******************************************************************************
+ * Copyright (c) 2016 Oracle
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Konstantin Komissarchik - initial implementation and ongoing maintenance
+ ******************************************************************************/
+
+package org.eclipse.corundum;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.tools.ant.BuildException;
+
+/**
+ * Passes the manifest of each bundle in a directory through a series of transformers. Each manifest
+ * is read once and written once, if it has changed, regardless of the number of transformers.
+ *
+ * <p>Bundles are processed concurrently, but the log of each bundle is buffered and flushed in bundle
+ * order. A bundle is only written once all preceding bundles have been processed, so that a failure
+ * stops the pipeline at the same bundle regardless of the number of threads. A manifest that cannot
+ * be read or written fails its bundle like any other error, so it is collected along with the other
+ * errors if requested.</p>
+ *
+ * @author <a href="konstantin@komissarchik.net">Konstantin Komissarchik</a>
+ */
+
+public final class ManifestPipeline
+{
+    private final AbstractTask task;
+    private final File bundlesDirectory;
+    private final List<ManifestTransformer> transformers = new ArrayList<ManifestTransformer>();
+    private int threads = BundleScanner.defaultThreads();
+    private boolean collectErrors = false;
+    private String mode = ChangeSet.MODE_DIRECT;
+    private File changeSetFile = null;
+    private final ManifestCache cache;
+    private BundleInventory inventory = new BundleInventory();
+    private volatile boolean cancelled;
+    
+    /**
+     * @param task the task that runs the pipeline, which receives the log
+     * @param bundlesDirectory the directory that contains the bundles, either as jars or as directories
+     */
+    
+    public ManifestPipeline( final AbstractTask task, final File bundlesDirectory )
+    {
+        this.task = task;
+        this.bundlesDirectory = bundlesDirectory;
+        this.cache = ManifestCache.get( task.getProject() );
+    }
+    
+    public AbstractTask getTask()
+    {
+        return this.task;
+    }
+    
+    public File getBundlesDirectory()
+    {
+        return this.bundlesDirectory;
+    }
+    
+    public ManifestCache getCache()
+    {
+        return this.cache;
+    }
+    
+    /**
+     * Returns the inventory of the bundles in the directory. The inventory is available once the
+     * transformers are initialized.
+     */
+    
+    public BundleInventory getInventory()
+    {
+        return this.inventory;
+    }
+    
+    /**
+     * Replaces the inventory seen by the transformers that are initialized later. This is used by
+     * transformers that change what the bundles provide, so that later transformers see the bundles
+     * as they would if the transformers ran one after another.
+     */
+    
+    public void setInventory( final BundleInventory inventory )
+    {
+        this.inventory = inventory;
+    }
+    
+    public void add( final ManifestTransformer transformer )
+    {
+        this.transformers.add( transformer );
+    }
+    
+    public void setThreads( final int threads )
+    {
+        this.threads = threads;
+    }
+    
+    public void setCollectErrors( final boolean collectErrors )
+    {
+        this.collectErrors = collectErrors;
+    }
+    
+    public void setMode( final String mode )
+    {
+        this.mode = ChangeSet.checkMode( mode );
+    }
+    
+    public void setChangeSet( final File changeSetFile )
+    {
+        this.changeSetFile = changeSetFile;
+    }
+    
+    public void run()
+    {
+        try
+        {
+            if( this.bundlesDirectory == null || ! this.bundlesDirectory.exists() )
+            {
+                this.task.fail( this.bundlesDirectory + " does not exist!" );
+            }
+            
+            if( ! this.mode.equals( ChangeSet.MODE_DIRECT ) && this.changeSetFile == null )
+            {
+                this.task.fail( "The \"changeSet\" attribute must be specified in the " + this.mode + " mode." );
+            }
+            
+            final Set<String> headers = new LinkedHashSet<String>();
+            
+            for( ManifestTransformer transformer : this.transformers )
+            {
+                headers.addAll( transformer.getHeaders() );
+            }
+            
+            if( this.mode.equals( ChangeSet.MODE_APPLY ) )
+            {
+                final List<ChangeSet.Change> applied = ChangeSet.load( this.changeSetFile ).apply( this.bundlesDirectory, headers );
+                
+                for( ChangeSet.Change change : applied )
+                {
+                    this.task.info( change.getBundle() + " : " + change.getHeader() + " updated" );
+                }
+                
+                this.task.info( "Applied " + applied.size() + " changes to " + join( headers ) );
+                
+                return;
+            }
+            
+            scan();
+            
+            final List<BundleInfo> bundles = new ArrayList<BundleInfo>( this.inventory.getBundles() );
+            
+            for( ManifestTransformer transformer : this.transformers )
+            {
+                transformer.init( this );
+            }
+            
+            final List<Result> results = transform( bundles );
+            
+            if( this.mode.equals( ChangeSet.MODE_PLAN ) )
+            {
+                final ChangeSet changeSet = ChangeSet.load( this.changeSetFile );
+                int count = 0;
+                
+                changeSet.remove( headers );
+                
+                for( Result result : results )
+                {
+                    for( String header : result.manifest.getModifiedHeaders() )
+                    {
+                        if( headers.contains( header ) )
+                        {
+                            changeSet.add( result.bundle.getLocation().getName(), header,
+                                           result.manifest.getOriginal( header ), result.manifest.get( header ) );
+                            count++;
+                        }
+                    }
+                }
+                
+                changeSet.save( this.changeSetFile );
+                
+                this.task.info( "Planned " + count + " changes to " + join( headers ) );
+            }
+        }
+        catch( IOException e )
+        {
+            throw new BuildException( e );
+        }
+    }
+    
+    private void scan()
+    {
+        final List<File> locations = new ArrayList<File>();
+        
+        for( File location : this.bundlesDirectory.listFiles() )
+        {
+            if( BundleInfo.isValidBundle( location ) )
+            {
+                locations.add( location );
+            }
+        }
+        
+        Collections.sort( locations );
+        
+        for( BundleScanner.Result result : new BundleScanner( this.threads, this.cache ).scan( locations ) )
+        {
+            final Exception e = result.getException();
+            
+            if( e == null )
+            {
+                this.inventory.addBundle( result.getBundle() );
+            }
+            else
+            {
+                this.task.warning( "WARNING: Bundle " + result.getLocation().getName() + " skipped: " + e.getMessage() );
+                
+                if( "true".equals( System.getProperty( "debug" ) ) )
+                {
+                   e.printStackTrace();
+                }
+            }
+        }
+        
+        this.inventory.freeze();
+    }
+    
+    /**
+     * Transforms all bundles and writes the changed manifests, unless in plan mode.
+     *
+     * @return the bundles whose manifests have changed
+     */
+    
+    private List<Result> transform( final List<BundleInfo> bundles )
+    {
+        final List<Result> changed = new ArrayList<Result>();
+        
+        if( bundles.isEmpty() )
+        {
+            return changed;
+        }
+        
+        final boolean plan = this.mode.equals( ChangeSet.MODE_PLAN );
+        final ExecutorService executor = Executors.newFixedThreadPool( Math.min( this.threads, bundles.size() ) );
+        final List<Future<Result>> futures = new ArrayList<Future<Result>>();
+        Step previousStep = null;
+        int failures = 0;
+        
+        try
+        {
+            for( final BundleInfo bundle : bundles )
+            {
+                final Step previous = previousStep;
+                final Step step = new Step();
+                
+                previousStep = step;
+                
+                futures.add
+                (
+                    executor.submit
+                    (
+                        new Callable<Result>()
+                        {
+                            public Result call() throws InterruptedException
+                            {
+                                final Result result = new Result( bundle );
+                                
+                                try
+                                {
+                                    if( ! ManifestPipeline.this.cancelled )
+                                    {
+                                        transform( result );
+                                    }
+                                    
+                                    if( previous != null )
+                                    {
+                                        previous.processed.await();
+                                    }
+                                    
+                                    step.stop = ( previous != null && previous.stop ) || ManifestPipeline.this.cancelled
+                                                || ( result.log.isFailed() && ! ManifestPipeline.this.collectErrors );
+                                    
+                                    step.processed.countDown();
+                                    
+                                    if( result.isModified() && ! step.stop && ! plan )
+                                    {
+                                        try
+                                        {
+                                            ManifestUtil.writeBundleManifest( bundle.getLocation(), result.manifest );
+                                        }
+                                        catch( final IOException e )
+                                        {
+                                            result.log.error( "Could not write the manifest of " + bundle.getLocation().getName() + ": " + e.getMessage() );
+                                            result.log.setFailed();
+                                            
+                                            // The bundles that follow may already have been written, but no more are
+                                            // started, as with a failure that is found before writing.
+                                            
+                                            if( ! ManifestPipeline.this.collectErrors )
+                                            {
+                                                ManifestPipeline.this.cancelled = true;
+                                            }
+                                        }
+                                    }
+                                }
+                                finally
+                                {
+                                    step.processed.countDown();
+                                }
+                                
+                                return result;
+                            }
+                        }
+                    )
+                );
+            }
+            
+            for( Future<Result> future : futures )
+            {
+                final Result result = future.get();
+                
+                result.log.flush( this.task );
+                
+                if( result.log.isFailed() )
+                {
+                    if( ! this.collectErrors )
+                    {
+                        throw new BuildException( "Build failed." );
+                    }
+                    
+                    failures++;
+                }
+                else if( result.isModified() )
+                {
+                    changed.add( result );
+                }
+            }
+        }
+        catch( final InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new BuildException( e );
+        }
+        catch( final ExecutionException e )
+        {
+            throw new BuildException( e.getCause() );
+        }
+        finally
+        {
+            // Bundles that have not been processed yet are skipped, but manifests that are being
+            // written are allowed to complete.
+            
+            this.cancelled = true;
+            executor.shutdown();
+            
+            try
+            {
+                executor.awaitTermination( Long.MAX_VALUE, TimeUnit.MILLISECONDS );
+            }
+            catch( final InterruptedException e )
+            {
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+        
+        if( failures > 0 )
+        {
+            this.task.error( "Processing failed for " + failures + ( failures == 1 ? " bundle." : " bundles." ) );
+            throw new BuildException( "Build failed." );
+        }
+        
+        return changed;
+    }
+    
+    private void transform( final Result result )
+    {
+        try
+        {
+            result.manifest = ManifestUtil.readBundleManifest( result.bundle.getLocation() );
+            
+            for( ManifestTransformer transformer : this.transformers )
+            {
+                transformer.transform( result.bundle, result.manifest, result.log );
+            }
+        }
+        catch( final IOException e )
+        {
+            result.log.error( "Could not read the manifest of " + result.bundle.getLocation().getName() + ": " + e.getMessage() );
+            result.log.setFailed();
+        }
+        catch( final BundleLog.Failure e )
+        {
+            result.log.setFailed();
+        }
+        catch( final BuildException e )
+        {
+            result.log.error( e.getMessage() );
+            result.log.setFailed();
+        }
+    }
+    
+    private static String join( final Set<String> headers )
+    {
+        final StringBuilder buf = new StringBuilder();
+        
+        for( String header : headers )
+        {
+            if( buf.length() > 0 )
+            {
+                buf.append( ", " );
+            }
+            
+            buf.append( header );
+        }
+        
+        return buf.toString();
+    }
+    
+    /**
+     * The position of a bundle in the chain that orders manifest writes. A step is processed once its
+     * bundle and all preceding bundles have been processed, at which point it is known whether the
+     * pipeline stops before reaching the bundle.
+     */
+    
+    private static final class Step
+    {
+        private final CountDownLatch processed = new CountDownLatch( 1 );
+        private volatile boolean stop = true;
+    }
+    
+    private static final class Result
+    {
+        private final BundleInfo bundle;
+        private final BundleLog log = new BundleLog();
+        private ManifestEditor manifest;
+        
+        public Result( final BundleInfo bundle )
+        {
+            this.bundle = bundle;
+        }
+        
+        public boolean isModified()
+        {
+            return ( this.manifest != null && ! this.log.isFailed() && this.manifest.isModified() );
+        }
+    }
+    
+}
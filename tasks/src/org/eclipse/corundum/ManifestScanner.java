@@ -0,0 +1,293 @@
+/******************************************************************************
+ * Copyright (c) 2016 Oracle
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Konstantin Komissarchik - initial implementation and ongoing maintenance
+ ******************************************************************************/
+
+package org.eclipse.corundum;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Reads the main section of a manifest at the byte level. Continuation lines are joined, but only the
+ * values of the requested headers are decoded. When specific headers are requested, reading stops as
+ * soon as all of them have been found. Header names are matched without regard to case, as in
+ * java.util.jar.Attributes.Name.
+ *
+ * @author <a href="konstantin@komissarchik.net">Konstantin Komissarchik</a>
+ */
+
+final class ManifestScanner
+{
+    private static final int BUFFER_SIZE = 8 * 1024;
+    
+    private final InputStream in;
+    private final byte[] buffer = new byte[ BUFFER_SIZE ];
+    private int position;
+    private int limit;
+    private boolean pendingLineFeed;
+    
+    private byte[] line = new byte[ 128 ];
+    private int lineLength;
+    
+    private byte[] value = new byte[ 128 ];
+    private int valueLength;
+    
+    private ManifestScanner( final InputStream in )
+    {
+        this.in = in;
+    }
+    
+    /**
+     * Reads the main section of a manifest.
+     *
+     * @param in the manifest content
+     * @param names the headers to read or null to read all headers
+     * @return the values of the headers that were found, keyed by the requested name or, when reading
+     *   all headers, by the name as it appears in the manifest in a map that ignores the case of names
+     */
+    
+    public static Map<String,String> scan( final InputStream in,
+                                           final Collection<String> names )
+        
+        throws IOException
+    
+    {
+        return new ManifestScanner( in ).scan( names == null ? null : encode( names ) );
+    }
+    
+    private static byte[][] encode( final Collection<String> names )
+    {
+        final byte[][] encoded = new byte[ names.size() ][];
+        int i = 0;
+        
+        for( String name : names )
+        {
+            encoded[ i++ ] = name.getBytes( StandardCharsets.UTF_8 );
+        }
+        
+        return encoded;
+    }
+    
+    private Map<String,String> scan( final byte[][] names ) throws IOException
+    {
+        final String[] requested = ( names == null ? null : new String[ names.length ] );
+        final Map<String,String> result
+            = ( names == null ? new TreeMap<String,String>( String.CASE_INSENSITIVE_ORDER ) : new HashMap<String,String>() );
+        
+        String name = null;
+        int remaining = ( names == null ? -1 : names.length );
+        boolean inHeader = false;
+        
+        while( remaining != 0 && readLine() )
+        {
+            if( this.lineLength == 0 )
+            {
+                break;
+            }
+            
+            if( this.line[ 0 ] == ' ' )
+            {
+                if( ! inHeader )
+                {
+                    throw new IOException( "Misplaced continuation line in manifest" );
+                }
+                
+                if( name != null )
+                {
+                    appendValue( 1 );
+                }
+                
+                continue;
+            }
+            
+            if( name != null )
+            {
+                result.put( name, decodeValue() );
+                name = null;
+                
+                if( remaining > 0 )
+                {
+                    remaining--;
+                    
+                    if( remaining == 0 )
+                    {
+                        break;
+                    }
+                }
+            }
+            
+            final int colon = indexOf( (byte) ':' );
+            
+            if( colon <= 0 )
+            {
+                throw new IOException( "Invalid header field in manifest" );
+            }
+            
+            inHeader = true;
+            
+            if( names == null )
+            {
+                name = new String( this.line, 0, colon, StandardCharsets.US_ASCII );
+            }
+            else
+            {
+                for( int i = 0; i < names.length; i++ )
+                {
+                    if( requested[ i ] == null && matches( names[ i ], colon ) )
+                    {
+                        name = new String( names[ i ], StandardCharsets.UTF_8 );
+                        requested[ i ] = name;
+                        break;
+                    }
+                }
+            }
+            
+            if( name != null )
+            {
+                this.valueLength = 0;
+                appendValue( colon + 1 < this.lineLength && this.line[ colon + 1 ] == ' ' ? colon + 2 : colon + 1 );
+            }
+        }
+        
+        if( name != null )
+        {
+            result.put( name, decodeValue() );
+        }
+        
+        return result;
+    }
+    
+    private int indexOf( final byte b )
+    {
+        for( int i = 0; i < this.lineLength; i++ )
+        {
+            if( this.line[ i ] == b )
+            {
+                return i;
+            }
+        }
+        
+        return -1;
+    }
+    
+    private boolean matches( final byte[] name, final int length )
+    {
+        if( name.length != length )
+        {
+            return false;
+        }
+        
+        for( int i = 0; i < length; i++ )
+        {
+            final int a = this.line[ i ];
+            final int b = name[ i ];
+            
+            if( a != b && lower( a ) != lower( b ) )
+            {
+                return false;
+            }
+        }
+        
+        return true;
+    }
+    
+    private static int lower( final int b )
+    {
+        return ( b >= 'A' && b <= 'Z' ? b + ( 'a' - 'A' ) : b );
+    }
+    
+    private void appendValue( final int start )
+    {
+        final int length = this.lineLength - start;
+        
+        if( this.valueLength + length > this.value.length )
+        {
+            final byte[] value = new byte[ Math.max( this.value.length * 2, this.valueLength + length ) ];
+            System.arraycopy( this.value, 0, value, 0, this.valueLength );
+            this.value = value;
+        }
+        
+        System.arraycopy( this.line, start, this.value, this.valueLength, length );
+        this.valueLength += length;
+    }
+    
+    private String decodeValue()
+    {
+        return new String( this.value, 0, this.valueLength, StandardCharsets.UTF_8 );
+    }
+    
+    /**
+     * Reads the next line into the line buffer. Lines may be terminated by CR LF, LF or CR.
+     *
+     * @return false if the end of the stream has been reached before any content
+     */
+    
+    private boolean readLine() throws IOException
+    {
+        this.lineLength = 0;
+        
+        boolean content = false;
+        
+        while( true )
+        {
+            if( this.position == this.limit )
+            {
+                this.limit = this.in.read( this.buffer, 0, this.buffer.length );
+                this.position = 0;
+                
+                if( this.limit <= 0 )
+                {
+                    this.limit = 0;
+                    return content;
+                }
+            }
+            
+            final byte b = this.buffer[ this.position++ ];
+            
+            if( this.pendingLineFeed )
+            {
+                this.pendingLineFeed = false;
+                
+                if( b == '\n' )
+                {
+                    continue;
+                }
+            }
+            
+            if( b == '\n' )
+            {
+                return true;
+            }
+            
+            if( b == '\r' )
+            {
+                this.pendingLineFeed = true;
+                return true;
+            }
+            
+            content = true;
+            
+            if( this.lineLength == this.line.length )
+            {
+                final byte[] line = new byte[ this.line.length * 2 ];
+                System.arraycopy( this.line, 0, line, 0, this.lineLength );
+                this.line = line;
+            }
+            
+            this.line[ this.lineLength++ ] = b;
+        }
+    }
+    
+}
@@ -0,0 +1,47 @@
+/******************************************************************************
+ * Copyright (c) 2016 Oracle
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Konstantin Komissarchik - initial implementation and ongoing maintenance
+ ******************************************************************************/
+
+package org.eclipse.corundum;
+
+import java.io.IOException;
+import java.util.Collection;
+
+/**
+ * A step of the transform-manifests task. Each bundle manifest is read once, passed through all
+ * transformers in the order in which they are specified and written once if any of them changed it.
+ * Custom transformers can be added with typedef and nested in the task like the built-in ones.
+ *
+ * @author <a href="konstantin@komissarchik.net">Konstantin Komissarchik</a>
+ */
+
+public interface ManifestTransformer
+{
+    /**
+     * Returns the names of the headers that the transformer changes. The plan and apply modes only
+     * consider changes to these headers.
+     */
+    
+    Collection<String> getHeaders();
+    
+    /**
+     * Prepares the transformer before any manifest is transformed.
+     */
+    
+    void init( ManifestPipeline pipeline ) throws IOException;
+    
+    /**
+     * Transforms the manifest of a bundle. Bundles are transformed concurrently, so this method must
+     * be thread-safe. A bundle is failed by calling BundleLog.fail or by throwing a BuildException.
+     */
+    
+    void transform( BundleInfo bundle, ManifestEditor manifest, BundleLog log ) throws IOException;
+    
+}
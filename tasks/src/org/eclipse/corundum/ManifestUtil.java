@@ -11,21 +11,18 @@
 
 package org.eclipse.corundum;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.jar.Attributes;
-import java.util.jar.Manifest;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
 import java.util.zip.ZipFile;
 
 /**
@@ -51,13 +48,43 @@ public final class ManifestUtil
     
         throws IOException
         
+    {
+        return readManifestEntries( location, null );
+    }
+    
+    /**
+     * Reads the specified headers from the main section of a bundle manifest, without decoding any of
+     * the other headers. Passing null for the keys reads all headers.
+     */
+    
+    public static Map<String,String> readManifestEntries( final File location,
+                                                          final Collection<String> keys )
+        
+        throws IOException
+    
     {
         if( location.isFile() )
         {
-            try( ZipFile zip = ZipUtil.open( location ) )
+            final byte[] manifest;
+            
+            try
             {
-                return readManifest( zip );
+                manifest = ZipUtil.readEntry( location, MANIFEST_PATH );
             }
+            catch( final ZipException e )
+            {
+                try( ZipFile zip = ZipUtil.open( location ) )
+                {
+                    return readManifest( zip, keys );
+                }
+            }
+            
+            if( manifest == null )
+            {
+                return Collections.emptyMap();
+            }
+            
+            return ManifestScanner.scan( new ByteArrayInputStream( manifest ), keys );
         }
         else
         {
@@ -67,7 +94,7 @@ public final class ManifestUtil
             {
                 try( InputStream in = new FileInputStream( manifestFile ) )
                 {
-                    return readManifest( new BufferedInputStream( in ) );
+                    return ManifestScanner.scan( in, keys );
                 }
             }
             else
@@ -77,13 +104,33 @@ public final class ManifestUtil
         }
     }
     
+    public static Map<String,String> readManifest( final File location,
+                                                   final ManifestCache cache )
+        
+        throws IOException
+    
+    {
+        return ( cache == null ? readManifest( location ) : cache.read( location ) );
+    }
+    
     public static String readManifestEntry( File location,
                                             final String key )
     
         throws IOException
         
     {
-        final Map<String,String> manifest = readManifest( location );
+        return readManifestEntry( location, key, null );
+    }
+    
+    public static String readManifestEntry( final File location,
+                                            final String key,
+                                            final ManifestCache cache )
+        
+        throws IOException
+    
+    {
+        final Map<String,String> manifest
+            = ( cache == null ? readManifestEntries( location, Collections.singleton( key ) ) : cache.read( location ) );
         
         if( manifest != null )
         {
@@ -97,6 +144,15 @@ public final class ManifestUtil
     
         throws IOException
         
+    {
+        return readManifest( zip, null );
+    }
+    
+    private static Map<String,String> readManifest( final ZipFile zip,
+                                                    final Collection<String> keys )
+        
+        throws IOException
+    
     {
         final ZipEntry zipentry = ZipUtil.getZipEntry( zip, MANIFEST_PATH );
         
@@ -104,7 +160,7 @@ public final class ManifestUtil
         {
             try( InputStream in = zip.getInputStream( zipentry ) )
             {
-                return readManifest( in );
+                return ManifestScanner.scan( in, keys );
             }
         }
         else
@@ -118,19 +174,7 @@ public final class ManifestUtil
         throws IOException
         
     {
-        final Map<String,String> entries = new HashMap<String,String>();
-        final Manifest manifest = new Manifest();
-        
-        manifest.read( stream );
-        
-        for( Map.Entry<Object,Object> entry 
-             : manifest.getMainAttributes().entrySet() )
-        {
-            final Attributes.Name name = (Attributes.Name) entry.getKey();
-            entries.put( name.toString(), (String) entry.getValue() );
-        }
-        
-        return entries;
+        return ManifestScanner.scan( stream, null );
     }
     
     public static List<File> readManifestClasspath( final File archive )
@@ -162,44 +206,122 @@ public final class ManifestUtil
         return manifestClasspath;
     }
 
-    public static void setManifestEntry( File manifestFile,
+    public static boolean setManifestEntry( File manifestFile,
                                          final String entryKey,
                                          final String entryValue )
     
         throws IOException
         
     {
-        setManifestEntries( manifestFile, Collections.singletonMap( entryKey, entryValue ) );
+        return setManifestEntries( manifestFile, Collections.singletonMap( entryKey, entryValue ) );
     }
     
-    public static void setManifestEntries( final File manifestFile,
-                                           final Map<String,String> entries )
+    /**
+     * Updates several headers of a manifest with a single write. The order and formatting of the other
+     * headers is preserved and the file is not written at all if the content would not change.
+     *
+     * @return true if the manifest file was written
+     */
+    
+    public static boolean setManifestEntries( final File manifestFile,
+                                              final Map<String,String> entries )
     
         throws IOException
         
     {
-        final Manifest manifest = new Manifest();
+        final ManifestEditor editor = ManifestEditor.read( manifestFile );
+        
+        editor.set( entries );
+        
+        final boolean changed = editor.write( manifestFile );
         
-        if( manifestFile.exists() )
+        if( changed )
         {
-            try( InputStream in = new FileInputStream( manifestFile ) )
-            {
-                manifest.read( new BufferedInputStream( in ) );
-            }
+            ManifestCache.invalidateAll( manifestFile );
         }
         
-        final Attributes mainAttributes = manifest.getMainAttributes();
+        return changed;
+    }
+    
+    /**
+     * Reads the manifest of a bundle, which can be either a directory or a jar, for editing. A missing
+     * manifest is read as an empty one.
+     */
+    
+    public static ManifestEditor readBundleManifest( final File bundle ) throws IOException
+    {
+        if( ! bundle.isFile() )
+        {
+            return ManifestEditor.read( new File( bundle, MANIFEST_PATH ) );
+        }
         
-        for( Map.Entry<String,String> entry : entries.entrySet() )
+        final byte[] manifest = ZipUtil.readEntry( bundle, MANIFEST_PATH );
+        return new ManifestEditor( manifest == null ? new byte[ 0 ] : manifest );
+    }
+    
+    /**
+     * Writes the manifest of a bundle that was read with readBundleManifest, unless it has not been
+     * modified. In a jar, only the manifest entry is rewritten and all other entries are copied without
+     * being decompressed.
+     *
+     * @return true if the bundle was modified
+     */
+    
+    public static boolean writeBundleManifest( final File bundle, final ManifestEditor editor ) throws IOException
+    {
+        if( ! editor.isModified() )
         {
-            mainAttributes.putValue( entry.getKey(), entry.getValue() );
+            return false;
         }
         
-        try( BufferedOutputStream out = new BufferedOutputStream( new FileOutputStream( manifestFile ) ) )
+        if( ! bundle.isFile() )
         {
-            manifest.write( out );
-            out.flush();
+            final File manifestFile = new File( bundle, MANIFEST_PATH );
+            final boolean changed = editor.write( manifestFile );
+            
+            if( changed )
+            {
+                ManifestCache.invalidateAll( manifestFile );
+            }
+            
+            return changed;
         }
+        
+        ZipUtil.replaceEntry( bundle, MANIFEST_PATH, editor.toByteArray() );
+        ManifestCache.invalidateAll( bundle );
+        
+        return true;
+    }
+    
+    public static boolean setBundleManifestEntry( final File bundle,
+                                                  final String entryKey,
+                                                  final String entryValue )
+        
+        throws IOException
+    
+    {
+        return setBundleManifestEntries( bundle, Collections.singletonMap( entryKey, entryValue ) );
+    }
+    
+    /**
+     * Updates several headers of the manifest of a bundle, which can be either a directory or a jar.
+     * In a jar, only the manifest entry is rewritten and all other entries are copied without being
+     * decompressed.
+     *
+     * @return true if the bundle was modified
+     */
+    
+    public static boolean setBundleManifestEntries( final File bundle,
+                                                    final Map<String,String> entries )
+        
+        throws IOException
+    
+    {
+        final ManifestEditor editor = readBundleManifest( bundle );
+        
+        editor.set( entries );
+        
+        return writeBundleManifest( bundle, editor );
     }
     
 }
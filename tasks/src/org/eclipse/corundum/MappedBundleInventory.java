@@ -0,0 +1,650 @@
+/******************************************************************************
+ * Copyright (c) 2016 Oracle
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Konstantin Komissarchik - initial implementation and ongoing maintenance
+ ******************************************************************************/
+
+package org.eclipse.corundum;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Binary form of a bundle inventory that is accessed through a memory-mapped buffer. Bundles are
+ * only decoded when they are looked up.
+ *
+ * <pre>
+ * header          : magic, format version, bundle count, id count, slot count, string data length,
+ *                   package count, package slot count, export count
+ * ids             : id count * ( string offset, string length, first bundle, bundle count )
+ * slots           : slot count * ( id index + 1 or 0 for an empty slot )
+ * bundles         : bundle count * ( version, first export, export count )
+ * packages        : package count * ( string offset, string length, first package export, package export count )
+ * package slots   : package slot count * ( package index + 1 or 0 for an empty slot )
+ * exports         : export count * ( package index, version )
+ * package exports : export count * ( export index )
+ * string data     : UTF-8 encoded ids, package names and qualifiers
+ * 
+ * version         : segment count, segment 0, segment 1, segment 2, qualifier offset, qualifier length
+ * </pre>
+ *
+ * Ids are stored in sorted order and the bundles of each id are stored from lowest to highest version,
+ * so walking the bundles in file order produces the same order as BundleInventory. The exports of each
+ * bundle are stored together in the order of the bundles. The package exports list the exports of each
+ * package from lowest to highest version. Version 2 of the format, which has no packages, can still be
+ * read.
+ *
+ * @author <a href="konstantin@komissarchik.net">Konstantin Komissarchik</a>
+ */
+
+final class MappedBundleInventory
+{
+    static final int MAGIC = 0x43494E56; // CINV
+    static final int FORMAT_VERSION = 3;
+    
+    private static final int FORMAT_VERSION_WITHOUT_PACKAGES = 2;
+    private static final int HEADER_SIZE = 9 * 4;
+    private static final int HEADER_SIZE_WITHOUT_PACKAGES = 6 * 4;
+    private static final int NAME_RECORD_SIZE = 4 * 4;
+    private static final int SLOT_SIZE = 4;
+    private static final int VERSION_SIZE = 4 + 3 * 8 + 2 * 4;
+    private static final int BUNDLE_RECORD_SIZE = VERSION_SIZE + 2 * 4;
+    private static final int EXPORT_RECORD_SIZE = 4 + VERSION_SIZE;
+    
+    private final ByteBuffer buffer;
+    private final int bundleCount;
+    private final int idCount;
+    private final int slotCount;
+    private final int packageCount;
+    private final int packageSlotCount;
+    private final int idsOffset;
+    private final int slotsOffset;
+    private final int bundlesOffset;
+    private final int bundleRecordSize;
+    private final int packagesOffset;
+    private final int packageSlotsOffset;
+    private final int exportsOffset;
+    private final int packageExportsOffset;
+    private final int stringsOffset;
+    private final String[] ids;
+    private final String[] packages;
+    private final BundleInfo[] bundles;
+    
+    private MappedBundleInventory( final ByteBuffer buffer ) throws IOException
+    {
+        if( buffer.capacity() < HEADER_SIZE_WITHOUT_PACKAGES || buffer.getInt( 0 ) != MAGIC )
+        {
+            throw new IOException( "Not a binary bundle inventory." );
+        }
+        
+        final int version = buffer.getInt( 4 );
+        
+        if( version != FORMAT_VERSION && version != FORMAT_VERSION_WITHOUT_PACKAGES )
+        {
+            throw new IOException( "Unsupported binary bundle inventory version " + version + "." );
+        }
+        
+        final boolean hasPackages = ( version == FORMAT_VERSION );
+        
+        if( hasPackages && buffer.capacity() < HEADER_SIZE )
+        {
+            throw new IOException( "Corrupted binary bundle inventory." );
+        }
+        
+        this.buffer = buffer;
+        this.bundleCount = buffer.getInt( 8 );
+        this.idCount = buffer.getInt( 12 );
+        this.slotCount = buffer.getInt( 16 );
+        this.packageCount = ( hasPackages ? buffer.getInt( 24 ) : 0 );
+        this.packageSlotCount = ( hasPackages ? buffer.getInt( 28 ) : 0 );
+        
+        final int stringDataLength = buffer.getInt( 20 );
+        final int exportCount = ( hasPackages ? buffer.getInt( 32 ) : 0 );
+        
+        this.idsOffset = ( hasPackages ? HEADER_SIZE : HEADER_SIZE_WITHOUT_PACKAGES );
+        this.slotsOffset = this.idsOffset + this.idCount * NAME_RECORD_SIZE;
+        this.bundlesOffset = this.slotsOffset + this.slotCount * SLOT_SIZE;
+        this.bundleRecordSize = ( hasPackages ? BUNDLE_RECORD_SIZE : VERSION_SIZE );
+        this.packagesOffset = this.bundlesOffset + this.bundleCount * this.bundleRecordSize;
+        this.packageSlotsOffset = this.packagesOffset + this.packageCount * NAME_RECORD_SIZE;
+        this.exportsOffset = this.packageSlotsOffset + this.packageSlotCount * SLOT_SIZE;
+        this.packageExportsOffset = this.exportsOffset + exportCount * EXPORT_RECORD_SIZE;
+        this.stringsOffset = this.packageExportsOffset + exportCount * 4;
+        
+        if( Integer.bitCount( this.slotCount ) != 1 || ( hasPackages && Integer.bitCount( this.packageSlotCount ) != 1 ) ||
+            this.stringsOffset + stringDataLength != buffer.capacity() )
+        {
+            throw new IOException( "Corrupted binary bundle inventory." );
+        }
+        
+        this.ids = new String[ this.idCount ];
+        this.packages = new String[ this.packageCount ];
+        this.bundles = new BundleInfo[ this.bundleCount ];
+    }
+    
+    public static boolean isBinary( final File file ) throws IOException
+    {
+        try( RandomAccessFile raf = new RandomAccessFile( file, "r" ) )
+        {
+            return ( raf.length() >= HEADER_SIZE_WITHOUT_PACKAGES && raf.readInt() == MAGIC );
+        }
+    }
+    
+    public static MappedBundleInventory map( final File file ) throws IOException
+    {
+        try( RandomAccessFile raf = new RandomAccessFile( file, "r" ); FileChannel channel = raf.getChannel() )
+        {
+            return new MappedBundleInventory( channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() ) );
+        }
+    }
+    
+    public int size()
+    {
+        return this.bundleCount;
+    }
+    
+    public boolean contains( final String id )
+    {
+        return findId( id ) != -1;
+    }
+    
+    public BundleInfo lowest( final String id )
+    {
+        final int index = findId( id );
+        return ( index == -1 ? null : bundle( index, first( this.idsOffset, index ) ) );
+    }
+    
+    public BundleInfo highest( final String id )
+    {
+        final int index = findId( id );
+        return ( index == -1 ? null : bundle( index, first( this.idsOffset, index ) + count( this.idsOffset, index ) - 1 ) );
+    }
+    
+    public List<BundleInfo> list( final String id )
+    {
+        final List<BundleInfo> list = new ArrayList<BundleInfo>();
+        final int index = findId( id );
+        
+        if( index != -1 )
+        {
+            for( int i = first( this.idsOffset, index ), n = i + count( this.idsOffset, index ); i < n; i++ )
+            {
+                list.add( bundle( index, i ) );
+            }
+        }
+        
+        return list;
+    }
+    
+    public List<BundleInfo> list()
+    {
+        final List<BundleInfo> list = new ArrayList<BundleInfo>( this.bundleCount );
+        
+        for( int index = 0; index < this.idCount; index++ )
+        {
+            for( int i = first( this.idsOffset, index ), n = i + count( this.idsOffset, index ); i < n; i++ )
+            {
+                list.add( bundle( index, i ) );
+            }
+        }
+        
+        return list;
+    }
+    
+    public BundleVersion lowestPackageVersion( final String packageName )
+    {
+        final int index = findPackage( packageName );
+        return ( index == -1 ? null : packageExportVersion( first( this.packagesOffset, index ) ) );
+    }
+    
+    public List<BundleVersion> packageVersions( final String packageName )
+    {
+        final List<BundleVersion> list = new ArrayList<BundleVersion>();
+        final int index = findPackage( packageName );
+        
+        if( index != -1 )
+        {
+            for( int i = first( this.packagesOffset, index ), n = i + count( this.packagesOffset, index ); i < n; i++ )
+            {
+                list.add( packageExportVersion( i ) );
+            }
+        }
+        
+        return list;
+    }
+    
+    private BundleVersion packageExportVersion( final int packageExport )
+    {
+        final int export = this.buffer.getInt( this.packageExportsOffset + packageExport * 4 );
+        return version( this.exportsOffset + export * EXPORT_RECORD_SIZE + 4 );
+    }
+    
+    private int findId( final String id )
+    {
+        return find( id, this.idsOffset, this.slotsOffset, this.slotCount, this.ids );
+    }
+    
+    private int findPackage( final String packageName )
+    {
+        if( this.packageCount == 0 )
+        {
+            return -1;
+        }
+        
+        return find( packageName, this.packagesOffset, this.packageSlotsOffset, this.packageSlotCount, this.packages );
+    }
+    
+    private int find( final String name,
+                      final int recordsOffset,
+                      final int slotsOffset,
+                      final int slotCount,
+                      final String[] names )
+    {
+        final int mask = slotCount - 1;
+        
+        for( int slot = hash( name ) & mask; ; slot = ( slot + 1 ) & mask )
+        {
+            final int entry = this.buffer.getInt( slotsOffset + slot * SLOT_SIZE );
+            
+            if( entry == 0 )
+            {
+                return -1;
+            }
+            
+            if( matches( recordsOffset, names, entry - 1, name ) )
+            {
+                return entry - 1;
+            }
+        }
+    }
+    
+    private boolean matches( final int recordsOffset, final String[] names, final int index, final String name )
+    {
+        final int record = recordsOffset + index * NAME_RECORD_SIZE;
+        final int offset = this.stringsOffset + this.buffer.getInt( record );
+        final int length = this.buffer.getInt( record + 4 );
+        final int nameLength = name.length();
+        
+        if( length < nameLength )
+        {
+            return false;
+        }
+        
+        for( int i = 0; i < nameLength; i++ )
+        {
+            final char ch = name.charAt( i );
+            
+            if( ch >= 0x80 )
+            {
+                return name( recordsOffset, names, index ).equals( name );
+            }
+            
+            if( this.buffer.get( offset + i ) != ch )
+            {
+                return false;
+            }
+        }
+        
+        return ( length == nameLength );
+    }
+    
+    private String name( final int recordsOffset, final String[] names, final int index )
+    {
+        String name = names[ index ];
+        
+        if( name == null )
+        {
+            final int record = recordsOffset + index * NAME_RECORD_SIZE;
+            name = string( this.buffer.getInt( record ), this.buffer.getInt( record + 4 ) );
+            names[ index ] = name;
+        }
+        
+        return name;
+    }
+    
+    private String string( final int offset, final int length )
+    {
+        final byte[] bytes = new byte[ length ];
+        final ByteBuffer data = this.buffer.duplicate();
+        
+        data.position( this.stringsOffset + offset );
+        data.get( bytes );
+        
+        return new String( bytes, StandardCharsets.UTF_8 );
+    }
+    
+    private int first( final int recordsOffset, final int index )
+    {
+        return this.buffer.getInt( recordsOffset + index * NAME_RECORD_SIZE + 8 );
+    }
+    
+    private int count( final int recordsOffset, final int index )
+    {
+        return this.buffer.getInt( recordsOffset + index * NAME_RECORD_SIZE + 12 );
+    }
+    
+    private BundleVersion version( final int record )
+    {
+        final long[] segments = new long[ this.buffer.getInt( record ) ];
+        
+        for( int i = 0; i < segments.length; i++ )
+        {
+            segments[ i ] = this.buffer.getLong( record + 4 + i * 8 );
+        }
+        
+        BundleVersion version = new BundleVersion( segments );
+        final int qualifierLength = this.buffer.getInt( record + 4 + 3 * 8 + 4 );
+        
+        if( qualifierLength != -1 )
+        {
+            version = version.withQualifier( string( this.buffer.getInt( record + 4 + 3 * 8 ), qualifierLength ) );
+        }
+        
+        return version;
+    }
+    
+    private BundleInfo bundle( final int index, final int bundle )
+    {
+        BundleInfo info = this.bundles[ bundle ];
+        
+        if( info == null )
+        {
+            final int record = this.bundlesOffset + bundle * this.bundleRecordSize;
+            final BundleVersion version = version( record );
+            Map<String,BundleVersion> exports = null;
+            
+            if( this.bundleRecordSize == BUNDLE_RECORD_SIZE )
+            {
+                final int firstExport = this.buffer.getInt( record + VERSION_SIZE );
+                final int exportCount = this.buffer.getInt( record + VERSION_SIZE + 4 );
+                
+                if( exportCount > 0 )
+                {
+                    exports = new LinkedHashMap<String,BundleVersion>();
+                    
+                    for( int i = firstExport, n = firstExport + exportCount; i < n; i++ )
+                    {
+                        final int export = this.exportsOffset + i * EXPORT_RECORD_SIZE;
+                        exports.put( name( this.packagesOffset, this.packages, this.buffer.getInt( export ) ), version( export + 4 ) );
+                    }
+                }
+            }
+            
+            info = new BundleInfo( null, name( this.idsOffset, this.ids, index ), version, exports );
+            this.bundles[ bundle ] = info;
+        }
+        
+        return info;
+    }
+    
+    private static int hash( final String name )
+    {
+        final int h = name.hashCode();
+        return h ^ ( h >>> 16 );
+    }
+    
+    private static int[] slots( final List<Integer> hashes )
+    {
+        int slotCount = 16;
+        
+        while( slotCount < hashes.size() * 2 )
+        {
+            slotCount *= 2;
+        }
+        
+        final int[] slots = new int[ slotCount ];
+        
+        for( int i = 0, n = hashes.size(); i < n; i++ )
+        {
+            int slot = hashes.get( i ) & ( slotCount - 1 );
+            
+            while( slots[ slot ] != 0 )
+            {
+                slot = ( slot + 1 ) & ( slotCount - 1 );
+            }
+            
+            slots[ slot ] = i + 1;
+        }
+        
+        return slots;
+    }
+    
+    public static void write( final File file, final Collection<BundleInfo> bundles ) throws IOException
+    {
+        final List<byte[]> ids = new ArrayList<byte[]>();
+        final List<int[]> ranges = new ArrayList<int[]>();
+        final List<Integer> hashes = new ArrayList<Integer>();
+        String previous = null;
+        int stringDataLength = 0;
+        int position = 0;
+        
+        for( BundleInfo bundle : bundles )
+        {
+            final String id = bundle.getId();
+            
+            if( ! id.equals( previous ) )
+            {
+                final byte[] bytes = id.getBytes( StandardCharsets.UTF_8 );
+                ids.add( bytes );
+                ranges.add( new int[] { stringDataLength, bytes.length, position, 0 } );
+                hashes.add( hash( id ) );
+                stringDataLength += bytes.length;
+                previous = id;
+            }
+            
+            ranges.get( ranges.size() - 1 )[ 3 ]++;
+            position++;
+        }
+        
+        // Exports are numbered in bundle order and grouped by package.
+        
+        final List<BundleVersion> exportVersions = new ArrayList<BundleVersion>();
+        final List<String> exportPackages = new ArrayList<String>();
+        final Map<String,List<Integer>> packageExports = new TreeMap<String,List<Integer>>();
+        
+        for( BundleInfo bundle : bundles )
+        {
+            for( Map.Entry<String,BundleVersion> export : bundle.getExportedPackages().entrySet() )
+            {
+                List<Integer> list = packageExports.get( export.getKey() );
+                
+                if( list == null )
+                {
+                    list = new ArrayList<Integer>( 1 );
+                    packageExports.put( export.getKey(), list );
+                }
+                
+                list.add( exportVersions.size() );
+                exportPackages.add( export.getKey() );
+                exportVersions.add( export.getValue() );
+            }
+        }
+        
+        final Map<String,Integer> packageIndexes = new LinkedHashMap<String,Integer>();
+        final List<int[]> packageRanges = new ArrayList<int[]>();
+        final List<Integer> packageHashes = new ArrayList<Integer>();
+        final List<Integer> packageExportOrder = new ArrayList<Integer>( exportVersions.size() );
+        
+        for( Map.Entry<String,List<Integer>> entry : packageExports.entrySet() )
+        {
+            final String packageName = entry.getKey();
+            final List<Integer> list = entry.getValue();
+            final int length = packageName.getBytes( StandardCharsets.UTF_8 ).length;
+            
+            Collections.sort
+            (
+                list,
+                new Comparator<Integer>()
+                {
+                    public int compare( final Integer x, final Integer y )
+                    {
+                        return exportVersions.get( x ).compareTo( exportVersions.get( y ) );
+                    }
+                }
+            );
+            
+            packageIndexes.put( packageName, packageIndexes.size() );
+            packageRanges.add( new int[] { stringDataLength, length, packageExportOrder.size(), list.size() } );
+            packageHashes.add( hash( packageName ) );
+            packageExportOrder.addAll( list );
+            stringDataLength += length;
+        }
+        
+        final Map<String,int[]> qualifiers = new LinkedHashMap<String,int[]>();
+        final List<BundleVersion> versions = new ArrayList<BundleVersion>( bundles.size() + exportVersions.size() );
+        
+        for( BundleInfo bundle : bundles )
+        {
+            versions.add( bundle.getVersion() );
+        }
+        
+        versions.addAll( exportVersions );
+        
+        for( BundleVersion version : versions )
+        {
+            final String qualifier = version.getQualifier();
+            
+            if( qualifier != null && ! qualifiers.containsKey( qualifier ) )
+            {
+                final int length = qualifier.getBytes( StandardCharsets.UTF_8 ).length;
+                qualifiers.put( qualifier, new int[] { stringDataLength, length } );
+                stringDataLength += length;
+            }
+        }
+        
+        final int[] slots = slots( hashes );
+        final int[] packageSlots = slots( packageHashes );
+        
+        try( DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( file ) ) ) )
+        {
+            out.writeInt( MAGIC );
+            out.writeInt( FORMAT_VERSION );
+            out.writeInt( position );
+            out.writeInt( ids.size() );
+            out.writeInt( slots.length );
+            out.writeInt( stringDataLength );
+            out.writeInt( packageRanges.size() );
+            out.writeInt( packageSlots.length );
+            out.writeInt( exportVersions.size() );
+            
+            for( int[] range : ranges )
+            {
+                for( int value : range )
+                {
+                    out.writeInt( value );
+                }
+            }
+            
+            for( int slot : slots )
+            {
+                out.writeInt( slot );
+            }
+            
+            int export = 0;
+            
+            for( BundleInfo bundle : bundles )
+            {
+                final int exportCount = bundle.getExportedPackages().size();
+                
+                writeVersion( out, bundle.getVersion(), qualifiers );
+                out.writeInt( export );
+                out.writeInt( exportCount );
+                
+                export += exportCount;
+            }
+            
+            for( int[] range : packageRanges )
+            {
+                for( int value : range )
+                {
+                    out.writeInt( value );
+                }
+            }
+            
+            for( int slot : packageSlots )
+            {
+                out.writeInt( slot );
+            }
+            
+            for( int i = 0, n = exportVersions.size(); i < n; i++ )
+            {
+                out.writeInt( packageIndexes.get( exportPackages.get( i ) ) );
+                writeVersion( out, exportVersions.get( i ), qualifiers );
+            }
+            
+            for( int index : packageExportOrder )
+            {
+                out.writeInt( index );
+            }
+            
+            for( byte[] id : ids )
+            {
+                out.write( id );
+            }
+            
+            for( String packageName : packageIndexes.keySet() )
+            {
+                out.write( packageName.getBytes( StandardCharsets.UTF_8 ) );
+            }
+            
+            for( String qualifier : qualifiers.keySet() )
+            {
+                out.write( qualifier.getBytes( StandardCharsets.UTF_8 ) );
+            }
+            
+            out.flush();
+        }
+    }
+    
+    private static void writeVersion( final DataOutputStream out,
+                                      final BundleVersion version,
+                                      final Map<String,int[]> qualifiers )
+        
+        throws IOException
+    
+    {
+        final int length = Math.min( version.length(), 3 );
+        
+        out.writeInt( length );
+        
+        for( int i = 0; i < 3; i++ )
+        {
+            out.writeLong( i < length ? version.segment( i ) : 0 );
+        }
+        
+        final String qualifier = version.getQualifier();
+        
+        if( qualifier == null )
+        {
+            out.writeInt( 0 );
+            out.writeInt( -1 );
+        }
+        else
+        {
+            final int[] range = qualifiers.get( qualifier );
+            out.writeInt( range[ 0 ] );
+            out.writeInt( range[ 1 ] );
+        }
+    }
+    
+}
@@ -0,0 +1,153 @@
+/******************************************************************************
+ * Copyright (c) 2016 Oracle
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Konstantin Komissarchik - initial implementation and ongoing maintenance
+ ******************************************************************************/
+
+package org.eclipse.corundum;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+
+/**
+ * Produces raw deflate data, splitting large inputs into chunks that are compressed concurrently.
+ * Each chunk is primed with the last 32K of the preceding input as its dictionary and all but the
+ * last chunk end with a sync flush, so the concatenated chunks form a single valid deflate stream.
+ * The compression ratio is nearly the same as for a single stream.
+ *
+ * @author <a href="konstantin@komissarchik.net">Konstantin Komissarchik</a>
+ */
+
+final class ParallelDeflater
+{
+    private static final int CHUNK_SIZE = 256 * 1024;
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+    
+    private ParallelDeflater() {}
+    
+    /**
+     * Compresses the data. Inputs larger than one chunk are compressed in parallel using the
+     * specified executor, which must not be running tasks that wait on the result of this method.
+     *
+     * @param executor the executor to use or null to compress on the calling thread
+     */
+    
+    public static byte[] deflate( final byte[] data,
+                                  final int length,
+                                  final int level,
+                                  final ExecutorService executor )
+    {
+        if( executor == null || length <= CHUNK_SIZE )
+        {
+            return deflate( data, 0, length, level, true );
+        }
+        
+        final List<Future<byte[]>> chunks = new ArrayList<Future<byte[]>>();
+        
+        for( int offset = 0; offset < length; offset += CHUNK_SIZE )
+        {
+            final int start = offset;
+            final int end = Math.min( offset + CHUNK_SIZE, length );
+            
+            chunks.add
+            (
+                executor.submit
+                (
+                    new Callable<byte[]>()
+                    {
+                        public byte[] call()
+                        {
+                            return deflate( data, start, end, level, end == length );
+                        }
+                    }
+                )
+            );
+        }
+        
+        final ByteArrayOutputStream out = new ByteArrayOutputStream( length / 2 + 64 );
+        
+        try
+        {
+            for( Future<byte[]> chunk : chunks )
+            {
+                final byte[] compressed = chunk.get();
+                out.write( compressed, 0, compressed.length );
+            }
+        }
+        catch( final InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException( e );
+        }
+        catch( final ExecutionException e )
+        {
+            throw new IllegalStateException( e.getCause() );
+        }
+        finally
+        {
+            for( Future<byte[]> chunk : chunks )
+            {
+                chunk.cancel( true );
+            }
+        }
+        
+        return out.toByteArray();
+    }
+    
+    private static byte[] deflate( final byte[] data,
+                                   final int start,
+                                   final int end,
+                                   final int level,
+                                   final boolean last )
+    {
+        final Deflater deflater = new Deflater( level, true );
+        
+        try
+        {
+            if( start > 0 )
+            {
+                final int dictionary = Math.min( start, DICTIONARY_SIZE );
+                deflater.setDictionary( data, start - dictionary, dictionary );
+            }
+            
+            deflater.setInput( data, start, end - start );
+            
+            if( last )
+            {
+                deflater.finish();
+            }
+            
+            final ByteArrayOutputStream out = new ByteArrayOutputStream( ( end - start ) / 2 + 64 );
+            final byte[] buffer = new byte[ 16 * 1024 ];
+            
+            while( true )
+            {
+                final int count = deflater.deflate( buffer, 0, buffer.length, last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH );
+                out.write( buffer, 0, count );
+                
+                if( last ? deflater.finished() : count < buffer.length )
+                {
+                    break;
+                }
+            }
+            
+            return out.toByteArray();
+        }
+        finally
+        {
+            deflater.end();
+        }
+    }
+    
+}
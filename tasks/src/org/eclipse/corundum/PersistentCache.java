@@ -0,0 +1,174 @@
+/******************************************************************************
+ * Copyright (c) 2016 Oracle
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Konstantin Komissarchik - initial implementation and ongoing maintenance
+ ******************************************************************************/
+
+package org.eclipse.corundum;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Base class of the caches that persist an entry per file or folder between builds in a text file.
+ * The file starts with a header that identifies the format, followed by tab-separated lines written
+ * and parsed by the subclass. A file that is damaged or has a different header is discarded. Only
+ * the entries that were used or added since the cache was loaded are written back, so entries for
+ * files that are gone are dropped.
+ *
+ * @param <T> the type of the entries
+ * @author <a href="konstantin@komissarchik.net">Konstantin Komissarchik</a>
+ */
+
+public abstract class PersistentCache<T>
+{
+    protected static final char SEPARATOR = '\t';
+    
+    private final String header;
+    private final Map<String,T> entries = new HashMap<String,T>();
+    private final ConcurrentMap<String,T> used = new ConcurrentHashMap<String,T>();
+    
+    protected PersistentCache( final String header )
+    {
+        this.header = header;
+    }
+    
+    /**
+     * Reads the entries from the specified file, if it exists.
+     */
+    
+    protected final void read( final File file )
+    {
+        if( file != null && file.exists() )
+        {
+            try( BufferedReader r = new BufferedReader( new InputStreamReader( new FileInputStream( file ), StandardCharsets.UTF_8 ) ) )
+            {
+                String line = r.readLine();
+                
+                if( this.header.equals( line ) )
+                {
+                    for( line = r.readLine(); line != null; line = r.readLine() )
+                    {
+                        parse( line, line.split( String.valueOf( SEPARATOR ), -1 ) );
+                    }
+                }
+            }
+            catch( final IOException | IllegalArgumentException e )
+            {
+                // A damaged cache is discarded and rebuilt.
+                
+                this.entries.clear();
+                reset();
+            }
+        }
+    }
+    
+    /**
+     * Parses a line of the file and adds the entries that it completes.
+     *
+     * @param line the line
+     * @param segments the line split at each separator
+     * @throws IllegalArgumentException if the line is malformed
+     */
+    
+    protected abstract void parse( String line, String[] segments );
+    
+    /**
+     * Discards any state besides the entries that was read from a damaged file.
+     */
+    
+    protected void reset()
+    {
+    }
+    
+    /**
+     * Adds an entry read from the file.
+     */
+    
+    protected final void add( final String key, final T entry )
+    {
+        this.entries.put( key, entry );
+    }
+    
+    /**
+     * Returns the entry that was read from the file for the specified key or null if there is none.
+     */
+    
+    protected final T lookup( final String key )
+    {
+        return this.entries.get( key );
+    }
+    
+    /**
+     * Marks an entry to be written back, whether it was read from the file or newly created.
+     */
+    
+    protected final void use( final String key, final T entry )
+    {
+        this.used.put( key, entry );
+    }
+    
+    /**
+     * Writes the entries that were used or added since the cache was loaded, sorted by key, unless the
+     * file already has identical content. Entries whose keys cannot be stored are left out.
+     *
+     * @return true if the file was written
+     */
+    
+    public boolean save( final File file ) throws IOException
+    {
+        final StringBuilder buf = new StringBuilder();
+        
+        buf.append( this.header ).append( '\n' );
+        
+        writePreamble( buf );
+        
+        for( Map.Entry<String,T> mapEntry : new TreeMap<String,T>( this.used ).entrySet() )
+        {
+            if( isStorable( mapEntry.getKey() ) )
+            {
+                write( buf, mapEntry.getKey(), mapEntry.getValue() );
+            }
+        }
+        
+        return FileUtil.write( file, buf.toString() );
+    }
+    
+    /**
+     * Writes the lines that precede the entries.
+     */
+    
+    protected void writePreamble( final StringBuilder buf )
+    {
+    }
+    
+    /**
+     * Writes the lines of an entry, each terminated by a line feed.
+     */
+    
+    protected abstract void write( StringBuilder buf, String key, T entry );
+    
+    /**
+     * Determines whether a key or a name can be stored without breaking the format of the file.
+     */
+    
+    protected static boolean isStorable( final String name )
+    {
+        return ( name.indexOf( SEPARATOR ) == -1 && name.indexOf( '\n' ) == -1 && name.indexOf( '\r' ) == -1 );
+    }
+    
+}
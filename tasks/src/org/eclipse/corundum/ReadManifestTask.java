@@ -46,7 +46,7 @@ public final class ReadManifestTask extends AbstractTask
     {
         try
         {
-            final Map<String,String> entries = ManifestUtil.readManifest( this.path );
+            final Map<String,String> entries = ManifestUtil.readManifest( this.path, ManifestCache.get( getProject() ) );
             final Project project = getProject();
             
             for( ManifestEntryRequest request : this.requests )
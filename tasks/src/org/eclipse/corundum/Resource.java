@@ -65,6 +65,15 @@ public final class Resource
         }
     }
     
+    /**
+     * Parses the resource as a template with ${name} placeholders.
+     */
+    
+    public Template template()
+    {
+        return new Template( text() );
+    }
+    
     public void copy( final File folder )
     {
         if( folder == null || ! folder.isDirectory() )
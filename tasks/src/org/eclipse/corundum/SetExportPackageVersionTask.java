@@ -12,9 +12,10 @@
 package org.eclipse.corundum;
 
 import java.io.File;
-import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import org.apache.tools.ant.BuildException;
 
@@ -22,153 +23,145 @@ import org.apache.tools.ant.BuildException;
  * @author <a href="konstantin@komissarchik.net">Konstantin Komissarchik</a>
  */
 
-public final class SetExportPackageVersionTask extends AbstractTask
+public final class SetExportPackageVersionTask extends AbstractTask implements ManifestTransformer
 {
     private static final String PROP_BUNDLE_VERSION = "Bundle-Version";
     private static final String PROP_EXPORT_PACKAGE = "Export-Package";
+    private static final String ATTR_VERSION = "version";
     
     private File bundlesLocation = null;
-    private final List<ExcludeEntry> excludes = new ArrayList<ExcludeEntry>();    
+    private String mode = ChangeSet.MODE_DIRECT;
+    private File changeSetFile = null;
+    private final ExcludeFilter excludes = new ExcludeFilter();    
     
     public void setBundles( final File bundlesLocation )
     {
         this.bundlesLocation = bundlesLocation;
     }
     
+    /**
+     * Sets whether the manifests are changed right away ("direct"), the changes are only recorded in
+     * the change set ("plan") or the changes recorded in the change set are written ("apply").
+     */
+    
+    public void setMode( final String mode )
+    {
+        this.mode = ChangeSet.checkMode( mode );
+    }
+    
+    public void setChangeSet( final File changeSetFile )
+    {
+        this.changeSetFile = changeSetFile;
+    }
+    
     public void setExcludes( final String excludes )
     {
-        this.excludes.clear();
-        
         for( final String entry : excludes.split( ";" ) )
         {
             info( "Excluding " + entry );
-            this.excludes.add( new ExcludeEntry( entry ) );
         }
+        
+        this.excludes.setIds( excludes );
     }
 
-    public ExcludeEntry createExclude()
+    public ExcludeFilter.Entry createExclude()
     {
-        final ExcludeEntry exclude = new ExcludeEntry();
-        this.excludes.add( exclude );
-        return exclude;
+        return this.excludes.createExclude();
     }
     
-    private boolean isExcluded( final String id )
+    public void addExcludeFilter( final ExcludeFilter filter )
     {
-        for( ExcludeEntry entry : this.excludes )
-        {
-            final String pattern = entry.getId();
-            
-            if( pattern != null && id.matches( pattern ) )
-            {
-                return true;
-            }
-        }
-        
-        return false;
+        this.excludes.addFilter( filter );
     }
     
-    private boolean isExcluded( final File bundle )
+    @Override
+    public void execute() throws BuildException
     {
-        try
-        {
-            return isExcluded( ( new BundleInfo( bundle ) ).getId() );
-        }
-        catch( Exception e )
-        {
-             if( "true".equals( System.getProperty( "debug" ) ) )
-             {
-                e.printStackTrace();
-             }
-        }
+        final ManifestPipeline pipeline = new ManifestPipeline( this, this.bundlesLocation );
         
-        return true;
+        pipeline.add( this );
+        pipeline.setMode( this.mode );
+        pipeline.setChangeSet( this.changeSetFile );
+        pipeline.run();
     }
     
-    @Override
-    public void execute() throws BuildException
+    public Collection<String> getHeaders()
+    {
+        return Collections.singleton( PROP_EXPORT_PACKAGE );
+    }
+    
+    /**
+     * Updates the inventory of the pipeline with the package versions that this transformer sets, so
+     * that Import-Package constraints computed later in the same pipeline use them.
+     */
+    
+    public void init( final ManifestPipeline pipeline )
     {
-        try
+        final BundleInventory inventory = new BundleInventory();
+        
+        for( BundleInfo bundle : pipeline.getInventory().getBundles() )
         {
-            if( ! this.bundlesLocation.exists() )
+            if( bundle.getExportedPackages().isEmpty() || isExcluded( bundle ) )
             {
-                fail( this.bundlesLocation.toString() + " does not exist!" );
+                inventory.addBundle( bundle );
             }
-            
-            if( this.bundlesLocation.exists() )
+            else
             {
-                for( File location : this.bundlesLocation.listFiles() )
+                final Map<String,BundleVersion> exports = new LinkedHashMap<String,BundleVersion>();
+                
+                for( String packageName : bundle.getExportedPackages().keySet() )
                 {
-                    if( BundleInfo.isValidBundle( location ) && ! isExcluded( location ) )
-                    {
-                        final String originalExportPackage = ManifestUtil.readManifestEntry( location, PROP_EXPORT_PACKAGE );
-                        
-                        if( originalExportPackage != null )
-                        {
-                            final String bundleVersion = ManifestUtil.readManifestEntry( location, PROP_BUNDLE_VERSION );
-                            
-                            if( bundleVersion == null )
-                            {
-                                fail( "Bundle located at \"" + location.toString() + "\" does not specify Bundle-Version." );
-                            }
-                            
-                            final StringBuilder modifiedExportPackage = new StringBuilder();
-                            
-                            for( ManifestBundlesListEntry entry : ManifestBundlesListEntry.parse( originalExportPackage ) )
-                            {
-                                for( String attr : entry.attributes() )
-                                {
-                                    if( attr.startsWith( "version=" ) )
-                                    {
-                                        fail( "Bundle located at \"" + location.toString() + "\" manually specifies an exported package version for \"" + entry.bundle() + "\"." );
-                                    }
-                                }
-                                
-                                entry.attributes().add( 0, "version=\"" + bundleVersion + "\"" );
-                                
-                                if( modifiedExportPackage.length() > 0 )
-                                {
-                                    modifiedExportPackage.append( ',' );
-                                }
-                                
-                                modifiedExportPackage.append( entry );
-                            }
-                            
-                            final File manifestFile = new File( location, ManifestUtil.MANIFEST_PATH );
-                            
-                            ManifestUtil.setManifestEntry( manifestFile, PROP_EXPORT_PACKAGE, modifiedExportPackage.toString() );
-                        }
-                    }
+                    exports.put( packageName, bundle.getVersion() );
                 }
+                
+                inventory.addBundle( new BundleInfo( bundle.getLocation(), bundle.getId(), bundle.getVersion(), exports ) );
             }
         }
-        catch( IOException e )
-        {
-            throw new BuildException( e );
-        }
+        
+        pipeline.setInventory( inventory.freeze() );
     }
     
-    public static final class ExcludeEntry
+    private boolean isExcluded( final BundleInfo bundle )
     {
-        private String id;
-        
-        public ExcludeEntry()
-        {
-        }
+        return this.excludes.isExcluded( bundle.getLocation() ) || this.excludes.isExcluded( bundle.getId() );
+    }
+    
+    public void transform( final BundleInfo bundle, final ManifestEditor manifest, final BundleLog log )
+    {
+        final File location = bundle.getLocation();
         
-        public ExcludeEntry( final String id )
+        if( isExcluded( bundle ) )
         {
-            this.id = id;
+            return;
         }
         
-        public String getId()
-        {
-            return this.id;
-        }
+        final String originalExportPackage = manifest.get( PROP_EXPORT_PACKAGE );
         
-        public void setId( final String id )
+        if( originalExportPackage != null )
         {
-            this.id = id;
+            final String bundleVersion = manifest.get( PROP_BUNDLE_VERSION );
+            
+            if( bundleVersion == null )
+            {
+                log.fail( "Bundle located at \"" + location.toString() + "\" does not specify Bundle-Version." );
+            }
+            
+            final ManifestHeader exportPackage = new ManifestHeader( originalExportPackage );
+            
+            for( ManifestClause clause : exportPackage.clauses() )
+            {
+                if( clause.attribute( ATTR_VERSION ) != null )
+                {
+                    log.fail( "Bundle located at \"" + location.toString() + "\" manually specifies an exported package version for \"" + clause.path() + "\"." );
+                }
+                
+                clause.insertAttribute( ATTR_VERSION, bundleVersion );
+            }
+            
+            if( exportPackage.isModified() )
+            {
+                manifest.set( PROP_EXPORT_PACKAGE, exportPackage.toString() );
+            }
         }
     }
     
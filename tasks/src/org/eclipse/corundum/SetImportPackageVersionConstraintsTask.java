@@ -0,0 +1,56 @@
+/******************************************************************************
+ * Copyright (c) 2016 Oracle
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Konstantin Komissarchik - initial implementation and ongoing maintenance
+ ******************************************************************************/
+
+package org.eclipse.corundum;
+
+import org.apache.tools.ant.Project;
+
+/**
+ * Adds version constraints to Import-Package clauses. Packages are resolved through the Export-Package
+ * index of the inventories, using the lowest exported version. Optional imports are left as is. Since
+ * packages provided by the runtime, such as javax.*, are not exported by any bundle, packages that
+ * cannot be resolved are only reported unless failOnUnknownPackage is set.
+ *
+ * @author <a href="konstantin@komissarchik.net">Konstantin Komissarchik</a>
+ */
+
+public final class SetImportPackageVersionConstraintsTask extends AbstractVersionConstraintsTask
+{
+    public SetImportPackageVersionConstraintsTask()
+    {
+        super( "Import-Package", "version", "package", false );
+    }
+    
+    public void setFailOnUnknownPackage( final boolean failOnUnknownPackage )
+    {
+        setFailOnUnknown( failOnUnknownPackage );
+    }
+    
+    @Override
+    protected BundleVersion getVersion( final BundleInventory inventory, final String packageName )
+    {
+        return inventory.getPackageVersion( packageName );
+    }
+    
+    @Override
+    protected boolean isIgnored( final ManifestClause clause )
+    {
+        final ManifestClause.Directive resolution = clause.directive( "resolution" );
+        return ( resolution != null && resolution.value().equals( "optional" ) );
+    }
+    
+    @Override
+    protected int getUnknownMessageLevel()
+    {
+        return Project.MSG_INFO;
+    }
+    
+}
@@ -0,0 +1,251 @@
+/******************************************************************************
+ * Copyright (c) 2016 Oracle
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Konstantin Komissarchik - initial implementation and ongoing maintenance
+ ******************************************************************************/
+
+package org.eclipse.corundum;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.StringTokenizer;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.DirectoryScanner;
+import org.apache.tools.ant.types.DataType;
+import org.apache.tools.ant.types.Resource;
+import org.apache.tools.ant.types.ResourceCollection;
+import org.apache.tools.ant.types.resources.FileResource;
+import org.apache.tools.ant.types.selectors.SelectorUtils;
+
+/**
+ * The files in a directory that match include and exclude patterns, like a fileset, read through the
+ * file system snapshot of the build. The directory is walked again each time, unless the reuse
+ * attribute is set, in which case the snapshot is used as is. Since the snapshot does not see
+ * changes made by other tasks and tools, reuse is only safe if nothing other than corundum tasks has
+ * changed the directory since it was last read, or the files that were changed have been invalidated
+ * with the invalidate-snapshot task. The default excludes of Ant apply.
+ *
+ * <pre>
+ * &lt;snapshot-fileset dir="${build.dir}/repository" includes="**&#47;*.jar"/&gt;
+ * </pre>
+ *
+ * @author <a href="konstantin@komissarchik.net">Konstantin Komissarchik</a>
+ */
+
+public final class SnapshotFileSet extends DataType implements ResourceCollection
+{
+    private File dir;
+    private final List<String> includes = new ArrayList<String>();
+    private final List<String> excludes = new ArrayList<String>();
+    private boolean reuse = false;
+    private List<String> effectiveExcludes;
+    private List<FileSystemSnapshot.Entry> entries;
+    private List<Resource> resources;
+    
+    public void setDir( final File dir )
+    {
+        checkAttributesAllowed();
+        this.dir = dir;
+        reset();
+    }
+    
+    public void setIncludes( final String includes )
+    {
+        checkAttributesAllowed();
+        patterns( includes, this.includes );
+        reset();
+    }
+    
+    public void setExcludes( final String excludes )
+    {
+        checkAttributesAllowed();
+        patterns( excludes, this.excludes );
+        reset();
+    }
+    
+    /**
+     * Uses the directory as it was last read by the snapshot instead of walking it again.
+     */
+    
+    public void setReuse( final boolean reuse )
+    {
+        checkAttributesAllowed();
+        this.reuse = reuse;
+        reset();
+    }
+    
+    @Override
+    public Iterator<Resource> iterator()
+    {
+        return resources().iterator();
+    }
+    
+    @Override
+    public int size()
+    {
+        return resources().size();
+    }
+    
+    @Override
+    public boolean isFilesystemOnly()
+    {
+        return true;
+    }
+    
+    private synchronized List<Resource> resources()
+    {
+        if( isReference() )
+        {
+            return getCheckedRef( SnapshotFileSet.class, "snapshot-fileset" ).resources();
+        }
+        
+        if( this.resources == null )
+        {
+            final List<FileSystemSnapshot.Entry> entries = entries();
+            final int base = base().length();
+            final List<Resource> resources = new ArrayList<Resource>( entries.size() );
+            
+            for( FileSystemSnapshot.Entry entry : entries )
+            {
+                resources.add( new FileResource( this.dir, entry.getFile().getPath().substring( base ) ) );
+            }
+            
+            this.resources = resources;
+        }
+        
+        return this.resources;
+    }
+    
+    /**
+     * Returns the snapshot entries of the matched files, sorted by path, so that tasks in this package
+     * can use the attributes that are already in the snapshot.
+     */
+    
+    synchronized List<FileSystemSnapshot.Entry> entries()
+    {
+        if( isReference() )
+        {
+            return getCheckedRef( SnapshotFileSet.class, "snapshot-fileset" ).entries();
+        }
+        
+        if( this.entries == null )
+        {
+            if( this.dir == null )
+            {
+                throw new BuildException( "The \"dir\" attribute must be specified." );
+            }
+            
+            final FileSystemSnapshot snapshot = FileSystemSnapshot.get( getProject() );
+            
+            if( ! this.reuse )
+            {
+                snapshot.invalidate( this.dir );
+            }
+            
+            final String base = base();
+            final List<FileSystemSnapshot.Entry> entries = new ArrayList<FileSystemSnapshot.Entry>();
+            
+            for( FileSystemSnapshot.Entry entry : snapshot.files( this.dir ) )
+            {
+                final String path = entry.getFile().getPath();
+                
+                if( path.startsWith( base ) )
+                {
+                    if( isIncluded( path.substring( base.length() ) ) )
+                    {
+                        entries.add( entry );
+                    }
+                }
+            }
+            
+            this.entries = entries;
+        }
+        
+        return this.entries;
+    }
+    
+    /**
+     * Determines whether a path relative to the directory matches the patterns, whether or not the file
+     * exists.
+     */
+    
+    synchronized boolean isIncluded( final String name )
+    {
+        if( isReference() )
+        {
+            return getCheckedRef( SnapshotFileSet.class, "snapshot-fileset" ).isIncluded( name );
+        }
+        
+        if( this.effectiveExcludes == null )
+        {
+            final List<String> excludes = new ArrayList<String>( this.excludes );
+            
+            for( String pattern : DirectoryScanner.getDefaultExcludes() )
+            {
+                excludes.add( normalize( pattern ) );
+            }
+            
+            this.effectiveExcludes = excludes;
+        }
+        
+        final String normalized = name.replace( '/', File.separatorChar );
+        
+        return ( ( this.includes.isEmpty() || matches( this.includes, normalized ) ) && ! matches( this.effectiveExcludes, normalized ) );
+    }
+    
+    private String base()
+    {
+        return this.dir.getAbsoluteFile().toPath().normalize().toString() + File.separator;
+    }
+    
+    private void reset()
+    {
+        this.entries = null;
+        this.resources = null;
+        this.effectiveExcludes = null;
+    }
+    
+    private static boolean matches( final List<String> patterns, final String name )
+    {
+        for( String pattern : patterns )
+        {
+            if( SelectorUtils.matchPath( pattern, name ) )
+            {
+                return true;
+            }
+        }
+        
+        return false;
+    }
+    
+    private static void patterns( final String string, final List<String> patterns )
+    {
+        if( string != null )
+        {
+            for( StringTokenizer tokens = new StringTokenizer( string, ", ", false ); tokens.hasMoreTokens(); )
+            {
+                patterns.add( normalize( tokens.nextToken() ) );
+            }
+        }
+    }
+    
+    /**
+     * Converts a pattern to the separator of the platform. As in a fileset, a pattern that ends with
+     * a separator matches everything underneath.
+     */
+    
+    private static String normalize( final String pattern )
+    {
+        final String normalized = pattern.replace( '/', File.separatorChar ).replace( '\\', File.separatorChar );
+        return ( normalized.endsWith( File.separator ) ? normalized + "**" : normalized );
+    }
+    
+}
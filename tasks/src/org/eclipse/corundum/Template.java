@@ -0,0 +1,132 @@
+/******************************************************************************
+ * Copyright (c) 2016 Oracle
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Konstantin Komissarchik - initial implementation and ongoing maintenance
+ ******************************************************************************/
+
+package org.eclipse.corundum;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A text template with ${name} placeholders. The template is parsed once into literal segments and
+ * placeholder names, and is rendered directly into a writer without building intermediate strings.
+ * Line breaks in the template are written using the line separator of the platform. A placeholder
+ * without a value is written as is.
+ *
+ * @author <a href="konstantin@komissarchik.net">Konstantin Komissarchik</a>
+ */
+
+public final class Template
+{
+    private static final String NL = System.getProperty( "line.separator" );
+    
+    private final String[] literals;
+    private final String[] names;
+    
+    public Template( final String text )
+    {
+        if( text == null )
+        {
+            throw new IllegalArgumentException();
+        }
+        
+        final List<String> literals = new ArrayList<String>();
+        final List<String> names = new ArrayList<String>();
+        int position = 0;
+        
+        for( int start = text.indexOf( "${" ); start != -1; start = text.indexOf( "${", position ) )
+        {
+            final int end = text.indexOf( '}', start + 2 );
+            
+            if( end == -1 )
+            {
+                break;
+            }
+            
+            literals.add( text.substring( position, start ).replace( "\n", NL ) );
+            names.add( text.substring( start + 2, end ) );
+            position = end + 1;
+        }
+        
+        literals.add( text.substring( position ).replace( "\n", NL ) );
+        
+        this.literals = literals.toArray( new String[ literals.size() ] );
+        this.names = names.toArray( new String[ names.size() ] );
+    }
+    
+    /**
+     * Renders the template. A value that is a {@link Content} writes itself to the writer, any other
+     * value is written as a string.
+     */
+    
+    public void render( final Writer out, final Map<String,?> values ) throws IOException
+    {
+        out.write( this.literals[ 0 ] );
+        
+        for( int i = 0; i < this.names.length; i++ )
+        {
+            final Object value = values.get( this.names[ i ] );
+            
+            if( value == null )
+            {
+                out.write( "${" );
+                out.write( this.names[ i ] );
+                out.write( '}' );
+            }
+            else if( value instanceof Content )
+            {
+                ( (Content) value ).write( out );
+            }
+            else
+            {
+                out.write( value.toString() );
+            }
+            
+            out.write( this.literals[ i + 1 ] );
+        }
+    }
+    
+    /**
+     * Renders the template to a file using UTF-8 encoding, unless the file already has identical content.
+     *
+     * @return true if the file was written
+     */
+    
+    public boolean write( final File file, final Map<String,?> values ) throws IOException
+    {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        
+        try( Writer out = new BufferedWriter( new OutputStreamWriter( bytes, StandardCharsets.UTF_8 ) ) )
+        {
+            render( out, values );
+        }
+        
+        return FileUtil.write( file, bytes.toByteArray() );
+    }
+    
+    /**
+     * A value that is written to the output as the template is rendered, such as the output of
+     * another template.
+     */
+    
+    public interface Content
+    {
+        void write( Writer out ) throws IOException;
+    }
+    
+}
@@ -0,0 +1,108 @@
+/******************************************************************************
+ * Copyright (c) 2016 Oracle
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Konstantin Komissarchik - initial implementation and ongoing maintenance
+ ******************************************************************************/
+
+package org.eclipse.corundum;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.tools.ant.BuildException;
+
+/**
+ * Runs the nested manifest transformers over the bundles in a directory, reading and writing each
+ * manifest only once. The built-in transformers are set-bundle-version-constraints,
+ * set-import-package-version-constraints and set-export-package-version, whose directory, mode and
+ * concurrency attributes are ignored when nested in this task. Custom transformers implement
+ * ManifestTransformer and are declared with typedef.
+ *
+ * <pre>
+ * &lt;transform-manifests pluginsDirectory="${build.dir}/repository/plugins"&gt;
+ *   &lt;set-bundle-version-constraints minPlatformInventory="..." targetPlatformInventory="..."/&gt;
+ *   &lt;set-export-package-version/&gt;
+ * &lt;/transform-manifests&gt;
+ * </pre>
+ *
+ * @author <a href="konstantin@komissarchik.net">Konstantin Komissarchik</a>
+ */
+
+public final class TransformManifestsTask extends AbstractTask
+{
+    private File pluginsDirectory = null;
+    private int threads = BundleScanner.defaultThreads();
+    private boolean collectErrors = false;
+    private String mode = ChangeSet.MODE_DIRECT;
+    private File changeSetFile = null;
+    private final List<ManifestTransformer> transformers = new ArrayList<ManifestTransformer>();
+    
+    public void setPluginsDirectory( final File pluginsDirectory )
+    {
+        this.pluginsDirectory = pluginsDirectory;
+    }
+    
+    public void setThreads( final int threads )
+    {
+        if( threads < 1 )
+        {
+            throw new BuildException( "The \"threads\" attribute must be a positive number." );
+        }
+        
+        this.threads = threads;
+    }
+    
+    /**
+     * When set, a bundle that fails processing is skipped and the task fails once all other bundles
+     * have been processed, instead of stopping at the first failure.
+     */
+    
+    public void setCollectErrors( final boolean collectErrors )
+    {
+        this.collectErrors = collectErrors;
+    }
+    
+    /**
+     * Sets whether the manifests are changed right away ("direct"), the changes are only recorded in
+     * the change set ("plan") or the changes recorded in the change set are written ("apply").
+     */
+    
+    public void setMode( final String mode )
+    {
+        this.mode = ChangeSet.checkMode( mode );
+    }
+    
+    public void setChangeSet( final File changeSetFile )
+    {
+        this.changeSetFile = changeSetFile;
+    }
+    
+    public void add( final ManifestTransformer transformer )
+    {
+        this.transformers.add( transformer );
+    }
+    
+    @Override
+    public void execute() throws BuildException
+    {
+        final ManifestPipeline pipeline = new ManifestPipeline( this, this.pluginsDirectory );
+        
+        for( ManifestTransformer transformer : this.transformers )
+        {
+            pipeline.add( transformer );
+        }
+        
+        pipeline.setThreads( this.threads );
+        pipeline.setCollectErrors( this.collectErrors );
+        pipeline.setMode( this.mode );
+        pipeline.setChangeSet( this.changeSetFile );
+        pipeline.run();
+    }
+    
+}
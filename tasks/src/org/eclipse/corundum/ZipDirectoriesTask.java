@@ -0,0 +1,351 @@
+/******************************************************************************
+ * Copyright (c) 2016 Oracle
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Konstantin Komissarchik - initial implementation and ongoing maintenance
+ ******************************************************************************/
+
+package org.eclipse.corundum;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.DirectoryScanner;
+import org.apache.tools.ant.types.DirSet;
+
+/**
+ * Zips each directory matched in the source directory into an archive named after the directory,
+ * working on several directories at once and compressing large files in parallel. Files that are
+ * already compressed are stored. The source directories are deleted once they have been zipped,
+ * unless the delete attribute is set to false.
+ *
+ * @author <a href="konstantin@komissarchik.net">Konstantin Komissarchik</a>
+ */
+
+public final class ZipDirectoriesTask extends AbstractTask
+{
+    private static final String MANIFEST_DIR = "META-INF/";
+    
+    // 1980-01-01 00:00:00, the earliest time that can be represented in a zip entry
+    
+    private static final long FIXED_DOS_TIME = ( 1 << 21 ) | ( 1 << 16 );
+    
+    private static final List<String> STORED_EXTENSIONS
+        = Arrays.asList( ".jar", ".zip", ".war", ".gz", ".tgz", ".bz2", ".xz", ".7z",
+                         ".png", ".gif", ".jpg", ".jpeg" );
+    
+    private File source;
+    private File destination;
+    private String suffix = "zip";
+    private String includes = "*";
+    private String excludes = "";
+    private int threads = BundleScanner.defaultThreads();
+    private boolean deterministic = false;
+    private boolean delete = true;
+    private String property;
+    
+    public void setSource( final File source )
+    {
+        this.source = source;
+    }
+    
+    public void setDest( final File destination )
+    {
+        this.destination = destination;
+    }
+    
+    public void setSuffix( final String suffix )
+    {
+        this.suffix = suffix;
+    }
+    
+    public void setIncludes( final String includes )
+    {
+        this.includes = includes;
+    }
+    
+    public void setExcludes( final String excludes )
+    {
+        this.excludes = excludes;
+    }
+    
+    public void setThreads( final int threads )
+    {
+        if( threads < 1 )
+        {
+            throw new BuildException( "The \"threads\" attribute must be a positive number." );
+        }
+        
+        this.threads = threads;
+    }
+    
+    public void setDeterministic( final boolean deterministic )
+    {
+        this.deterministic = deterministic;
+    }
+    
+    public void setDelete( final boolean delete )
+    {
+        this.delete = delete;
+    }
+    
+    /**
+     * Sets the property that receives a comma-separated list of the names of the zipped directories.
+     */
+    
+    public void setProperty( final String property )
+    {
+        this.property = property;
+    }
+    
+    @Override
+    public void execute()
+    {
+        if( this.source == null )
+        {
+            throw new BuildException( "The \"source\" attribute must be specified." );
+        }
+        
+        final File destination = ( this.destination == null ? this.source : this.destination );
+        final List<String> names = new ArrayList<String>();
+        
+        if( this.source.isDirectory() )
+        {
+            final DirSet dirset = new DirSet();
+            dirset.setProject( getProject() );
+            dirset.setDir( this.source );
+            dirset.setIncludes( this.includes );
+            dirset.setExcludes( this.excludes );
+            
+            for( String name : dirset.getDirectoryScanner().getIncludedDirectories() )
+            {
+                if( name.length() > 0 && name.indexOf( File.separatorChar ) == -1 )
+                {
+                    names.add( name );
+                }
+            }
+            
+            Collections.sort( names );
+        }
+        
+        if( ! names.isEmpty() )
+        {
+            destination.mkdirs();
+            
+            final ExecutorService directoryExecutor = Executors.newFixedThreadPool( Math.min( this.threads, names.size() ) );
+            final ExecutorService chunkExecutor = ( this.threads == 1 ? null : Executors.newFixedThreadPool( this.threads ) );
+            
+            try
+            {
+                final List<Future<Void>> futures = new ArrayList<Future<Void>>();
+                
+                for( final String name : names )
+                {
+                    futures.add
+                    (
+                        directoryExecutor.submit
+                        (
+                            new Callable<Void>()
+                            {
+                                public Void call() throws IOException
+                                {
+                                    final File dir = new File( ZipDirectoriesTask.this.source, name );
+                                    final File zip = new File( destination, name + "." + ZipDirectoriesTask.this.suffix );
+                                    
+                                    zip( dir, zip, chunkExecutor );
+                                    FileSystemSnapshot.invalidateAll( zip );
+                                    
+                                    if( ZipDirectoriesTask.this.delete )
+                                    {
+                                        FileUtil.delete( dir );
+                                    }
+                                    
+                                    return null;
+                                }
+                            }
+                        )
+                    );
+                }
+                
+                for( Future<Void> future : futures )
+                {
+                    future.get();
+                }
+            }
+            catch( final InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+                throw new BuildException( e );
+            }
+            catch( final ExecutionException e )
+            {
+                throw new BuildException( e.getCause() );
+            }
+            finally
+            {
+                directoryExecutor.shutdownNow();
+                
+                if( chunkExecutor != null )
+                {
+                    chunkExecutor.shutdownNow();
+                }
+            }
+            
+            info( "Zipped " + names.size() + " directories" );
+        }
+        
+        if( this.property != null )
+        {
+            final StringBuilder buf = new StringBuilder();
+            
+            for( String name : names )
+            {
+                if( buf.length() > 0 )
+                {
+                    buf.append( ',' );
+                }
+                
+                buf.append( name );
+            }
+            
+            getProject().setProperty( this.property, buf.toString() );
+        }
+    }
+    
+    private void zip( final File dir, final File zip, final ExecutorService chunkExecutor ) throws IOException
+    {
+        final DirectoryScanner scanner = new DirectoryScanner();
+        scanner.setBasedir( dir );
+        scanner.addDefaultExcludes();
+        scanner.scan();
+        
+        final List<String> entries = new ArrayList<String>();
+        
+        for( String path : scanner.getIncludedDirectories() )
+        {
+            if( path.length() > 0 )
+            {
+                entries.add( path.replace( File.separatorChar, '/' ) + "/" );
+            }
+        }
+        
+        for( String path : scanner.getIncludedFiles() )
+        {
+            entries.add( path.replace( File.separatorChar, '/' ) );
+        }
+        
+        if( this.deterministic )
+        {
+            Collections.sort( entries );
+        }
+        
+        // The manifest must come first for the benefit of JarInputStream.
+        
+        Collections.sort
+        (
+            entries,
+            new Comparator<String>()
+            {
+                public int compare( final String x, final String y )
+                {
+                    return Integer.compare( rank( x ), rank( y ) );
+                }
+            }
+        );
+        
+        try( ZipWriter writer = new ZipWriter( new BufferedOutputStream( new FileOutputStream( zip ), 64 * 1024 ) ) )
+        {
+            for( String entry : entries )
+            {
+                final File file = new File( dir, entry );
+                final byte[] name = entry.getBytes( StandardCharsets.UTF_8 );
+                final long time = ( this.deterministic ? FIXED_DOS_TIME : ZipUtil.dosTime( file.lastModified() ) );
+                
+                if( entry.endsWith( "/" ) )
+                {
+                    writer.write( name, ZipEntry.STORED, time, 0, 0, new byte[ 0 ], 0, 0 );
+                }
+                else
+                {
+                    final byte[] data = Files.readAllBytes( file.toPath() );
+                    final CRC32 crc = new CRC32();
+                    crc.update( data );
+                    
+                    byte[] compressed = null;
+                    
+                    if( ! isCompressed( entry ) )
+                    {
+                        compressed = ParallelDeflater.deflate( data, data.length, Deflater.DEFAULT_COMPRESSION, chunkExecutor );
+                        
+                        if( compressed.length >= data.length )
+                        {
+                            compressed = null;
+                        }
+                    }
+                    
+                    if( compressed == null )
+                    {
+                        writer.write( name, ZipEntry.STORED, time, crc.getValue(), data.length, data, 0, data.length );
+                    }
+                    else
+                    {
+                        writer.write( name, ZipEntry.DEFLATED, time, crc.getValue(), data.length, compressed, 0, compressed.length );
+                    }
+                }
+            }
+        }
+    }
+    
+    private static int rank( final String entry )
+    {
+        if( entry.equals( MANIFEST_DIR ) )
+        {
+            return 0;
+        }
+        else if( entry.equalsIgnoreCase( ManifestUtil.MANIFEST_PATH ) )
+        {
+            return 1;
+        }
+        
+        return 2;
+    }
+    
+    private static boolean isCompressed( final String entry )
+    {
+        final String name = entry.toLowerCase( Locale.ROOT );
+        
+        for( String extension : STORED_EXTENSIONS )
+        {
+            if( name.endsWith( extension ) )
+            {
+                return true;
+            }
+        }
+        
+        return false;
+    }
+    
+}
@@ -0,0 +1,403 @@
+/******************************************************************************
+ * Copyright (c) 2016 Oracle
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Konstantin Komissarchik - initial implementation and ongoing maintenance
+ ******************************************************************************/
+
+package org.eclipse.corundum;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Reads the central directory of a zip file directly, without building a ZipEntry for every entry
+ * in the archive. Only the end of central directory record and the central directory are read when
+ * the archive is opened. Entry data is read on request. Zip64 archives are not supported and are
+ * reported with a ZipException, so that callers can fall back to java.util.zip.ZipFile.
+ *
+ * @author <a href="konstantin@komissarchik.net">Konstantin Komissarchik</a>
+ */
+
+public final class ZipDirectory implements Closeable
+{
+    static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    static final int END_SIGNATURE = 0x06054b50;
+    
+    static final int LOCAL_HEADER_SIZE = 30;
+    static final int CENTRAL_HEADER_SIZE = 46;
+    static final int END_SIZE = 22;
+    
+    private static final int MAX_COMMENT_LENGTH = 0xFFFF;
+    
+    private final File file;
+    private final FileChannel channel;
+    private final ByteBuffer directory;
+    private final int[] records;
+    private final long directoryOffset;
+    private final byte[] comment;
+    
+    private ZipDirectory( final File file, final FileChannel channel ) throws IOException
+    {
+        this.file = file;
+        this.channel = channel;
+        
+        final long size = channel.size();
+        final int tailLength = (int) Math.min( size, END_SIZE + MAX_COMMENT_LENGTH );
+        final ByteBuffer tail = read( channel, size - tailLength, tailLength );
+        
+        int end = -1;
+        
+        for( int i = tailLength - END_SIZE; i >= 0; i-- )
+        {
+            if( tail.getInt( i ) == END_SIGNATURE )
+            {
+                end = i;
+                break;
+            }
+        }
+        
+        if( end == -1 )
+        {
+            throw new ZipException( "End of central directory not found in " + file );
+        }
+        
+        final int count = tail.getShort( end + 10 ) & 0xFFFF;
+        final long directorySize = tail.getInt( end + 12 ) & 0xFFFFFFFFL;
+        final long directoryOffset = tail.getInt( end + 16 ) & 0xFFFFFFFFL;
+        
+        if( count == 0xFFFF || directorySize == 0xFFFFFFFFL || directoryOffset == 0xFFFFFFFFL )
+        {
+            throw new ZipException( "Zip64 archives are not supported: " + file );
+        }
+        
+        this.directoryOffset = directoryOffset;
+        this.comment = new byte[ Math.min( tail.getShort( end + 20 ) & 0xFFFF, tailLength - end - END_SIZE ) ];
+        
+        tail.position( end + END_SIZE );
+        tail.get( this.comment );
+        
+        this.directory = read( channel, directoryOffset, (int) directorySize );
+        this.records = new int[ count ];
+        
+        for( int i = 0, position = 0; i < count; i++ )
+        {
+            if( position + CENTRAL_HEADER_SIZE > this.directory.limit() || this.directory.getInt( position ) != CENTRAL_HEADER_SIGNATURE )
+            {
+                throw new ZipException( "Corrupted central directory in " + file );
+            }
+            
+            this.records[ i ] = position;
+            
+            position += CENTRAL_HEADER_SIZE +
+                        ( this.directory.getShort( position + 28 ) & 0xFFFF ) +
+                        ( this.directory.getShort( position + 30 ) & 0xFFFF ) +
+                        ( this.directory.getShort( position + 32 ) & 0xFFFF );
+        }
+    }
+    
+    public static ZipDirectory open( final File file ) throws IOException
+    {
+        final FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ );
+        
+        try
+        {
+            return new ZipDirectory( file, channel );
+        }
+        catch( final IOException | RuntimeException e )
+        {
+            channel.close();
+            throw e;
+        }
+    }
+    
+    static ByteBuffer read( final FileChannel channel, final long position, final int length ) throws IOException
+    {
+        final ByteBuffer buffer = ByteBuffer.allocate( length ).order( ByteOrder.LITTLE_ENDIAN );
+        
+        while( buffer.hasRemaining() )
+        {
+            if( channel.read( buffer, position + buffer.position() ) == -1 )
+            {
+                throw new ZipException( "Unexpected end of file" );
+            }
+        }
+        
+        buffer.flip();
+        
+        return buffer;
+    }
+    
+    public File file()
+    {
+        return this.file;
+    }
+    
+    public FileChannel channel()
+    {
+        return this.channel;
+    }
+    
+    public int size()
+    {
+        return this.records.length;
+    }
+    
+    /**
+     * Finds an entry by name. The comparison ignores the case of ASCII letters. If several entries
+     * match, an entry whose name matches exactly is preferred.
+     *
+     * @return the index of the entry or -1 if not found
+     */
+    
+    public int find( final String name )
+    {
+        final byte[] target = name.getBytes( StandardCharsets.UTF_8 );
+        int match = -1;
+        
+        for( int i = 0; i < this.records.length; i++ )
+        {
+            final int record = this.records[ i ];
+            final int length = this.directory.getShort( record + 28 ) & 0xFFFF;
+            
+            if( length == target.length )
+            {
+                final int start = record + CENTRAL_HEADER_SIZE;
+                boolean exact = true;
+                boolean equal = true;
+                
+                for( int j = 0; equal && j < length; j++ )
+                {
+                    final byte a = this.directory.get( start + j );
+                    final byte b = target[ j ];
+                    
+                    if( a != b )
+                    {
+                        exact = false;
+                        equal = ( lower( a ) == lower( b ) );
+                    }
+                }
+                
+                if( exact )
+                {
+                    return i;
+                }
+                
+                if( equal && match == -1 )
+                {
+                    match = i;
+                }
+            }
+        }
+        
+        return match;
+    }
+    
+    private static int lower( final byte b )
+    {
+        return ( b >= 'A' && b <= 'Z' ? b + ( 'a' - 'A' ) : b );
+    }
+    
+    public String name( final int entry )
+    {
+        final int record = this.records[ entry ];
+        final byte[] bytes = new byte[ this.directory.getShort( record + 28 ) & 0xFFFF ];
+        final ByteBuffer buffer = this.directory.duplicate();
+        
+        buffer.position( record + CENTRAL_HEADER_SIZE );
+        buffer.get( bytes );
+        
+        return new String( bytes, StandardCharsets.UTF_8 );
+    }
+    
+    public boolean isDirectory( final int entry )
+    {
+        final int record = this.records[ entry ];
+        final int length = this.directory.getShort( record + 28 ) & 0xFFFF;
+        
+        return ( length > 0 && this.directory.get( record + CENTRAL_HEADER_SIZE + length - 1 ) == '/' );
+    }
+    
+    public int flags( final int entry )
+    {
+        return this.directory.getShort( this.records[ entry ] + 8 ) & 0xFFFF;
+    }
+    
+    public int method( final int entry )
+    {
+        return this.directory.getShort( this.records[ entry ] + 10 ) & 0xFFFF;
+    }
+    
+    public long dosTime( final int entry )
+    {
+        return this.directory.getInt( this.records[ entry ] + 12 ) & 0xFFFFFFFFL;
+    }
+    
+    public long crc( final int entry )
+    {
+        return this.directory.getInt( this.records[ entry ] + 16 ) & 0xFFFFFFFFL;
+    }
+    
+    public long compressedSize( final int entry )
+    {
+        return this.directory.getInt( this.records[ entry ] + 20 ) & 0xFFFFFFFFL;
+    }
+    
+    public long size( final int entry )
+    {
+        return this.directory.getInt( this.records[ entry ] + 24 ) & 0xFFFFFFFFL;
+    }
+    
+    public long localHeaderOffset( final int entry )
+    {
+        return this.directory.getInt( this.records[ entry ] + 42 ) & 0xFFFFFFFFL;
+    }
+    
+    /**
+     * Returns the position of the first byte of the entry's data, as determined by the entry's
+     * local header.
+     */
+    
+    public long dataOffset( final int entry ) throws IOException
+    {
+        final long offset = localHeaderOffset( entry );
+        final ByteBuffer header = read( this.channel, offset, LOCAL_HEADER_SIZE );
+        
+        if( header.getInt( 0 ) != LOCAL_HEADER_SIGNATURE )
+        {
+            throw new ZipException( "Corrupted local header in " + this.file );
+        }
+        
+        return offset + LOCAL_HEADER_SIZE + ( header.getShort( 26 ) & 0xFFFF ) + ( header.getShort( 28 ) & 0xFFFF );
+    }
+    
+    /**
+     * Returns the raw central directory record of an entry. The returned buffer is a read-only view
+     * positioned at the start of the record, with the limit set at the end of the record.
+     */
+    
+    public ByteBuffer record( final int entry )
+    {
+        final int record = this.records[ entry ];
+        final int length = CENTRAL_HEADER_SIZE +
+                           ( this.directory.getShort( record + 28 ) & 0xFFFF ) +
+                           ( this.directory.getShort( record + 30 ) & 0xFFFF ) +
+                           ( this.directory.getShort( record + 32 ) & 0xFFFF );
+        
+        final ByteBuffer buffer = this.directory.asReadOnlyBuffer().order( ByteOrder.LITTLE_ENDIAN );
+        buffer.position( record );
+        buffer.limit( record + length );
+        
+        return buffer;
+    }
+    
+    public long directoryOffset()
+    {
+        return this.directoryOffset;
+    }
+    
+    public byte[] comment()
+    {
+        return this.comment.clone();
+    }
+    
+    /**
+     * Reads and decompresses the content of an entry.
+     */
+    
+    public byte[] read( final int entry ) throws IOException
+    {
+        final long compressedSize = compressedSize( entry );
+        final long size = size( entry );
+        
+        if( compressedSize == 0xFFFFFFFFL || size == 0xFFFFFFFFL || size > Integer.MAX_VALUE )
+        {
+            throw new ZipException( "Zip64 entries are not supported: " + this.file );
+        }
+        
+        final ByteBuffer data = read( this.channel, dataOffset( entry ), (int) compressedSize );
+        final int method = method( entry );
+        
+        if( method == ZipEntry.STORED )
+        {
+            return data.array();
+        }
+        else if( method == ZipEntry.DEFLATED )
+        {
+            final byte[] content = new byte[ (int) size ];
+            final Inflater inflater = new Inflater( true );
+            
+            try
+            {
+                inflater.setInput( data.array(), 0, data.limit() );
+                
+                int position = 0;
+                boolean dummy = false;
+                
+                while( ! inflater.finished() && position < content.length )
+                {
+                    final int count = inflater.inflate( content, position, content.length - position );
+                    
+                    if( count == 0 )
+                    {
+                        if( inflater.needsInput() && ! dummy )
+                        {
+                            // The inflater may need an extra byte when nowrap is used.
+                            
+                            inflater.setInput( new byte[ 1 ] );
+                            dummy = true;
+                        }
+                        else if( inflater.needsInput() || inflater.needsDictionary() )
+                        {
+                            throw new ZipException( "Truncated entry in " + this.file );
+                        }
+                    }
+                    
+                    position += count;
+                }
+                
+                if( position != content.length )
+                {
+                    throw new ZipException( "Truncated entry in " + this.file );
+                }
+            }
+            catch( final DataFormatException e )
+            {
+                final ZipException ze = new ZipException( e.getMessage() );
+                ze.initCause( e );
+                throw ze;
+            }
+            finally
+            {
+                inflater.end();
+            }
+            
+            return content;
+        }
+        else
+        {
+            throw new ZipException( "Unsupported compression method " + method + " in " + this.file );
+        }
+    }
+    
+    public void close() throws IOException
+    {
+        this.channel.close();
+    }
+    
+}
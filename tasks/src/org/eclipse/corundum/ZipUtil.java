@@ -11,11 +11,23 @@
 
 package org.eclipse.corundum;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Comparator;
 import java.util.Enumeration;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
 import java.util.zip.ZipFile;
 
 /**
@@ -57,6 +69,13 @@ public final class ZipUtil
         throws IOException
         
     {
+        final ZipEntry exact = zip.getEntry( name );
+        
+        if( exact != null )
+        {
+            return exact;
+        }
+        
         final String lcasename = name.toLowerCase();
 
         for( Enumeration<?> itr = zip.entries(); itr.hasMoreElements(); )
@@ -71,5 +90,164 @@ public final class ZipUtil
 
         return null;
     }
+    
+    /**
+     * Reads the content of an entry without opening the archive as a ZipFile. Only the central
+     * directory and the entry itself are read. The entry name is matched ignoring case.
+     * 
+     * @return the content of the entry or null if the archive does not contain the entry
+     * @throws ZipException if the archive cannot be read this way, such as a Zip64 archive
+     */
+    
+    public static byte[] readEntry( final File file,
+                                    final String name )
+        
+        throws IOException
+    
+    {
+        try( ZipDirectory directory = ZipDirectory.open( file ) )
+        {
+            final int entry = directory.find( name );
+            return ( entry == -1 ? null : directory.read( entry ) );
+        }
+    }
+    
+    /**
+     * Replaces the content of an entry in an archive, adding the entry at the start of the archive if
+     * it does not exist. All other entries are copied without being decompressed. The archive is
+     * written to a temporary file first, which then replaces the original.
+     * 
+     * @throws ZipException if the archive cannot be processed this way, such as a Zip64 archive
+     */
+    
+    public static void replaceEntry( final File file,
+                                     final String name,
+                                     final byte[] content )
+        
+        throws IOException
+    
+    {
+        final File temp = File.createTempFile( file.getName(), ".tmp", file.getAbsoluteFile().getParentFile() );
+        
+        try
+        {
+            try( ZipDirectory directory = ZipDirectory.open( file );
+                 ZipWriter writer = new ZipWriter( new BufferedOutputStream( new FileOutputStream( temp ) ) ) )
+            {
+                final int replaced = directory.find( name );
+                final int size = directory.size();
+                final Integer[] order = new Integer[ size ];
+                
+                for( int i = 0; i < size; i++ )
+                {
+                    order[ i ] = i;
+                }
+                
+                // Entries are copied in the order in which they appear in the file, so that the extent
+                // of each entry is the distance to the next local header.
+                
+                Arrays.sort
+                (
+                    order,
+                    new Comparator<Integer>()
+                    {
+                        public int compare( final Integer x, final Integer y )
+                        {
+                            return Long.compare( directory.localHeaderOffset( x ), directory.localHeaderOffset( y ) );
+                        }
+                    }
+                );
+                
+                final CRC32 crc = new CRC32();
+                crc.update( content );
+                
+                final byte[] compressed = ParallelDeflater.deflate( content, content.length, Deflater.DEFAULT_COMPRESSION, null );
+                
+                if( replaced == -1 )
+                {
+                    writer.write( name.getBytes( StandardCharsets.UTF_8 ), ZipEntry.DEFLATED, dosTime( System.currentTimeMillis() ),
+                                  crc.getValue(), content.length, compressed, 0, compressed.length );
+                }
+                
+                for( int i = 0; i < size; i++ )
+                {
+                    final int entry = order[ i ];
+                    
+                    if( entry == replaced )
+                    {
+                        writer.replace( directory, entry, ZipEntry.DEFLATED, crc.getValue(), content.length,
+                                        compressed, 0, compressed.length );
+                    }
+                    else
+                    {
+                        final long start = directory.localHeaderOffset( entry );
+                        final long end = ( i + 1 < size ? directory.localHeaderOffset( order[ i + 1 ] ) : directory.directoryOffset() );
+                        
+                        writer.copy( directory, entry, end - start );
+                    }
+                }
+                
+                writer.finish( directory.comment() );
+            }
+            
+            try
+            {
+                Files.move( temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+            }
+            catch( final AtomicMoveNotSupportedException e )
+            {
+                Files.move( temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING );
+            }
+            
+            FileSystemSnapshot.invalidateAll( file );
+        }
+        finally
+        {
+            temp.delete();
+        }
+    }
+    
+    /**
+     * Converts a Java time to the MS-DOS date and time format used in zip headers.
+     */
+    
+    static long dosTime( final long time )
+    {
+        final Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis( time );
+        
+        final int year = calendar.get( Calendar.YEAR );
+        
+        if( year < 1980 )
+        {
+            return ( 1 << 21 ) | ( 1 << 16 );
+        }
+        
+        return ( ( year - 1980 ) << 25 ) |
+               ( ( calendar.get( Calendar.MONTH ) + 1 ) << 21 ) |
+               ( calendar.get( Calendar.DAY_OF_MONTH ) << 16 ) |
+               ( calendar.get( Calendar.HOUR_OF_DAY ) << 11 ) |
+               ( calendar.get( Calendar.MINUTE ) << 5 ) |
+               ( calendar.get( Calendar.SECOND ) >> 1 );
+    }
+    
+    /**
+     * Converts a time in the MS-DOS date and time format used in zip headers to a Java time.
+     */
+    
+    static long javaTime( final long dosTime )
+    {
+        final Calendar calendar = Calendar.getInstance();
+        
+        calendar.clear();
+        calendar.set( (int) ( ( dosTime >> 25 ) & 0x7F ) + 1980,
+                      (int) ( ( dosTime >> 21 ) & 0x0F ) - 1,
+                      (int) ( ( dosTime >> 16 ) & 0x1F ),
+                      (int) ( ( dosTime >> 11 ) & 0x1F ),
+                      (int) ( ( dosTime >> 5 ) & 0x3F ),
+                      (int) ( ( dosTime << 1 ) & 0x3E ) );
+        
+        return calendar.getTimeInMillis();
+    }
 
 }
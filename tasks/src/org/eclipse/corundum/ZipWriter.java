@@ -0,0 +1,305 @@
+/******************************************************************************
+ * Copyright (c) 2016 Oracle
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Konstantin Komissarchik - initial implementation and ongoing maintenance
+ ******************************************************************************/
+
+package org.eclipse.corundum;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Writes a zip archive from entries whose data has already been prepared, either compressed data
+ * produced by the caller or the raw bytes of an entry in an existing archive. Unlike ZipOutputStream,
+ * this writer never compresses anything itself, so entries can be copied between archives without
+ * being inflated and deflated again.
+ *
+ * @author <a href="konstantin@komissarchik.net">Konstantin Komissarchik</a>
+ */
+
+public final class ZipWriter implements Closeable
+{
+    private static final int VERSION_STORED = 10;
+    private static final int VERSION_DEFLATED = 20;
+    private static final int FLAG_UTF8 = 0x0800;
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+    
+    private final OutputStream out;
+    private final ByteArrayOutputStream directory = new ByteArrayOutputStream();
+    private long offset;
+    private int count;
+    private boolean finished;
+    
+    public ZipWriter( final OutputStream out )
+    {
+        this.out = out;
+    }
+    
+    public long offset()
+    {
+        return this.offset;
+    }
+    
+    /**
+     * Copies an entry of an existing archive without decompressing it. The local header, the data and
+     * the data descriptor, if any, are copied as is and the central directory record is reused with
+     * only the local header offset updated.
+     *
+     * @param length the number of bytes occupied by the entry, starting at its local header
+     */
+    
+    public void copy( final ZipDirectory source, final int entry, final long length ) throws IOException
+    {
+        final ByteBuffer record = source.record( entry );
+        final byte[] bytes = new byte[ record.remaining() ];
+        
+        record.get( bytes );
+        
+        checkOffset();
+        
+        ByteBuffer.wrap( bytes ).order( ByteOrder.LITTLE_ENDIAN ).putInt( 42, (int) this.offset );
+        
+        this.directory.write( bytes, 0, bytes.length );
+        this.count++;
+        
+        final ByteBuffer buffer = ByteBuffer.allocate( (int) Math.min( length, COPY_BUFFER_SIZE ) );
+        long position = source.localHeaderOffset( entry );
+        long remaining = length;
+        
+        while( remaining > 0 )
+        {
+            buffer.clear();
+            buffer.limit( (int) Math.min( remaining, buffer.capacity() ) );
+            
+            final int read = source.channel().read( buffer, position );
+            
+            if( read == -1 )
+            {
+                throw new ZipException( "Unexpected end of file" );
+            }
+            
+            this.out.write( buffer.array(), 0, read );
+            
+            position += read;
+            remaining -= read;
+        }
+        
+        this.offset += length;
+    }
+    
+    /**
+     * Writes an entry whose data has already been prepared by the caller.
+     *
+     * @param name the entry name, encoded in UTF-8
+     * @param method ZipEntry.STORED or ZipEntry.DEFLATED
+     * @param dosTime the modification time in MS-DOS format
+     * @param crc the CRC-32 of the uncompressed data
+     * @param size the size of the uncompressed data
+     * @param data the data as it is to be stored, compressed with raw deflate if the method is DEFLATED
+     */
+    
+    public void write( final byte[] name, final int method, final long dosTime, final long crc, final long size,
+                       final byte[] data, final int dataOffset, final int dataLength ) throws IOException
+    {
+        if( method != ZipEntry.STORED && method != ZipEntry.DEFLATED )
+        {
+            throw new IllegalArgumentException();
+        }
+        
+        if( size > 0xFFFFFFFEL || name.length > 0xFFFF )
+        {
+            throw new ZipException( "Zip64 entries are not supported" );
+        }
+        
+        checkOffset();
+        
+        final int version = ( method == ZipEntry.STORED ? VERSION_STORED : VERSION_DEFLATED );
+        final int flags = ( isAscii( name ) ? 0 : FLAG_UTF8 );
+        
+        final ByteBuffer header = ByteBuffer.allocate( ZipDirectory.LOCAL_HEADER_SIZE ).order( ByteOrder.LITTLE_ENDIAN );
+        header.putInt( ZipDirectory.LOCAL_HEADER_SIGNATURE );
+        header.putShort( (short) version );
+        header.putShort( (short) flags );
+        header.putShort( (short) method );
+        header.putInt( (int) dosTime );
+        header.putInt( (int) crc );
+        header.putInt( dataLength );
+        header.putInt( (int) size );
+        header.putShort( (short) name.length );
+        header.putShort( (short) 0 );
+        
+        final ByteBuffer record = ByteBuffer.allocate( ZipDirectory.CENTRAL_HEADER_SIZE ).order( ByteOrder.LITTLE_ENDIAN );
+        record.putInt( ZipDirectory.CENTRAL_HEADER_SIGNATURE );
+        record.putShort( (short) version );
+        record.putShort( (short) version );
+        record.putShort( (short) flags );
+        record.putShort( (short) method );
+        record.putInt( (int) dosTime );
+        record.putInt( (int) crc );
+        record.putInt( dataLength );
+        record.putInt( (int) size );
+        record.putShort( (short) name.length );
+        record.putShort( (short) 0 ); // extra field length
+        record.putShort( (short) 0 ); // comment length
+        record.putShort( (short) 0 ); // disk number
+        record.putShort( (short) 0 ); // internal attributes
+        record.putInt( 0 );           // external attributes
+        record.putInt( (int) this.offset );
+        
+        this.directory.write( record.array(), 0, record.capacity() );
+        this.directory.write( name, 0, name.length );
+        this.count++;
+        
+        this.out.write( header.array() );
+        this.out.write( name );
+        this.out.write( data, dataOffset, dataLength );
+        
+        this.offset += header.capacity() + name.length + dataLength;
+    }
+    
+    /**
+     * Writes an entry that replaces an entry of an existing archive. The central directory record of
+     * the original entry is reused, so that its name, time, attributes and extra fields are retained.
+     */
+    
+    public void replace( final ZipDirectory source, final int entry, final int method, final long crc, final long size,
+                         final byte[] data, final int dataOffset, final int dataLength ) throws IOException
+    {
+        final ByteBuffer original = source.record( entry );
+        final byte[] bytes = new byte[ original.remaining() ];
+        
+        original.get( bytes );
+        
+        checkOffset();
+        
+        final ByteBuffer record = ByteBuffer.wrap( bytes ).order( ByteOrder.LITTLE_ENDIAN );
+        final int version = Math.max( record.getShort( 6 ) & 0xFFFF, method == ZipEntry.STORED ? VERSION_STORED : VERSION_DEFLATED );
+        final int flags = record.getShort( 8 ) & FLAG_UTF8;
+        final int nameLength = record.getShort( 28 ) & 0xFFFF;
+        
+        record.putShort( 6, (short) version );
+        record.putShort( 8, (short) flags );
+        record.putShort( 10, (short) method );
+        record.putInt( 16, (int) crc );
+        record.putInt( 20, dataLength );
+        record.putInt( 24, (int) size );
+        record.putInt( 42, (int) this.offset );
+        
+        this.directory.write( bytes, 0, bytes.length );
+        this.count++;
+        
+        final ByteBuffer header = ByteBuffer.allocate( ZipDirectory.LOCAL_HEADER_SIZE ).order( ByteOrder.LITTLE_ENDIAN );
+        header.putInt( ZipDirectory.LOCAL_HEADER_SIGNATURE );
+        header.putShort( (short) version );
+        header.putShort( (short) flags );
+        header.putShort( (short) method );
+        header.putInt( record.getInt( 12 ) );
+        header.putInt( (int) crc );
+        header.putInt( dataLength );
+        header.putInt( (int) size );
+        header.putShort( (short) nameLength );
+        header.putShort( (short) 0 );
+        
+        this.out.write( header.array() );
+        this.out.write( bytes, ZipDirectory.CENTRAL_HEADER_SIZE, nameLength );
+        this.out.write( data, dataOffset, dataLength );
+        
+        this.offset += header.capacity() + nameLength + dataLength;
+    }
+    
+    /**
+     * Writes the central directory and the end of central directory record. No entries can be added
+     * afterwards.
+     */
+    
+    public void finish( final byte[] comment ) throws IOException
+    {
+        if( this.finished )
+        {
+            return;
+        }
+        
+        if( this.count > 0xFFFF )
+        {
+            throw new ZipException( "Zip64 archives are not supported" );
+        }
+        
+        checkOffset();
+        
+        final int directorySize = this.directory.size();
+        final int commentLength = ( comment == null ? 0 : comment.length );
+        
+        this.directory.writeTo( this.out );
+        
+        final ByteBuffer end = ByteBuffer.allocate( ZipDirectory.END_SIZE ).order( ByteOrder.LITTLE_ENDIAN );
+        end.putInt( ZipDirectory.END_SIGNATURE );
+        end.putShort( (short) 0 );
+        end.putShort( (short) 0 );
+        end.putShort( (short) this.count );
+        end.putShort( (short) this.count );
+        end.putInt( directorySize );
+        end.putInt( (int) this.offset );
+        end.putShort( (short) commentLength );
+        
+        this.out.write( end.array() );
+        
+        if( commentLength > 0 )
+        {
+            this.out.write( comment );
+        }
+        
+        this.out.flush();
+        this.finished = true;
+    }
+    
+    public void close() throws IOException
+    {
+        try
+        {
+            finish( null );
+        }
+        finally
+        {
+            this.out.close();
+        }
+    }
+    
+    private void checkOffset() throws ZipException
+    {
+        if( this.finished )
+        {
+            throw new IllegalStateException();
+        }
+        
+        if( this.offset >= 0xFFFFFFFFL )
+        {
+            throw new ZipException( "Zip64 archives are not supported" );
+        }
+    }
+    
+    private static boolean isAscii( final byte[] name )
+    {
+        for( byte b : name )
+        {
+            if( b < 0 )
+            {
+                return false;
+            }
+        }
+        
+        return true;
+    }
+    
+}
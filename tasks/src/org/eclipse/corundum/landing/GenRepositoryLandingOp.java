@@ -13,14 +13,15 @@ package org.eclipse.corundum.landing;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.Collections;
 
 import org.eclipse.corundum.ClassResourceLoader;
 import org.eclipse.corundum.DelegatingOperationContext;
-import org.eclipse.corundum.FileUtil;
+import org.eclipse.corundum.ExcludeFilter;
+import org.eclipse.corundum.FileSystemSnapshot;
 import org.eclipse.corundum.Operation;
 import org.eclipse.corundum.OperationContext;
+import org.eclipse.corundum.Template;
 import org.eclipse.corundum.listing.GenFolderListingOp;
 
 /**
@@ -29,14 +30,15 @@ import org.eclipse.corundum.listing.GenFolderListingOp;
 
 public final class GenRepositoryLandingOp extends Operation
 {
-    private static final String NL = System.getProperty( "line.separator" );
-    
     private static final ClassResourceLoader RESOURCE_LOADER = new ClassResourceLoader( GenRepositoryLandingOp.class );
-    private static final String LANDING_PAGE_TEMPLATE = RESOURCE_LOADER.resource( "LandingPageTemplate.txt" ).text();
+    private static final Template LANDING_PAGE_TEMPLATE = RESOURCE_LOADER.resource( "LandingPageTemplate.txt" ).template();
 
     private File repository;
     private String name = "Repository";
-    private final Set<File> excludes = new HashSet<File>();
+    private final ExcludeFilter excludes = new ExcludeFilter();
+    private int parallelism = 1;
+    private File cache;
+    private FileSystemSnapshot snapshot;
     
     public File getRepository()
     {
@@ -58,11 +60,55 @@ public final class GenRepositoryLandingOp extends Operation
         this.name = ( name == null ? "Repository" : name );
     }
     
-    public final Set<File> getExcludes()
+    public final ExcludeFilter getExcludes()
     {
         return this.excludes;
     }
     
+    public int getParallelism()
+    {
+        return this.parallelism;
+    }
+    
+    /**
+     * Sets the number of threads that generate the folder listings.
+     */
+    
+    public void setParallelism( final int parallelism )
+    {
+        if( parallelism < 1 )
+        {
+            throw new IllegalArgumentException();
+        }
+        
+        this.parallelism = parallelism;
+    }
+    
+    public File getCache()
+    {
+        return this.cache;
+    }
+    
+    /**
+     * Sets the file that keeps the summary of each folder between runs, so that only the listings of
+     * the folders that have changed are generated again.
+     */
+    
+    public void setCache( final File cache )
+    {
+        this.cache = cache;
+    }
+    
+    public FileSystemSnapshot getSnapshot()
+    {
+        return this.snapshot;
+    }
+    
+    public void setSnapshot( final FileSystemSnapshot snapshot )
+    {
+        this.snapshot = snapshot;
+    }
+    
     @Override
     public void execute( final OperationContext context )
     {
@@ -82,8 +128,11 @@ public final class GenRepositoryLandingOp extends Operation
         
         final GenFolderListingOp genFolderListingOp = new GenFolderListingOp();
         genFolderListingOp.setFolder( this.repository );
-        genFolderListingOp.getExcludes().addAll( this.excludes );
+        genFolderListingOp.getExcludes().addFilter( this.excludes );
         genFolderListingOp.getExcludes().add( imagesFolder );
+        genFolderListingOp.setParallelism( this.parallelism );
+        genFolderListingOp.setCache( this.cache );
+        genFolderListingOp.setSnapshot( this.snapshot );
         
         genFolderListingOp.execute
         (
@@ -106,13 +155,9 @@ public final class GenRepositoryLandingOp extends Operation
         
         RESOURCE_LOADER.resource( "InstallDialog.png" ).copy( imagesFolder );
         
-        final String text = LANDING_PAGE_TEMPLATE
-            .replace( "${repository-name}", this.name )
-            .replace( "\n", NL );
-        
         try
         {
-            FileUtil.write( context.file( new File( this.repository, "index.html" ) ), text );
+            LANDING_PAGE_TEMPLATE.write( context.file( new File( this.repository, "index.html" ) ), Collections.singletonMap( "repository-name", this.name ) );
         }
         catch( final IOException e )
         {
@@ -16,7 +16,8 @@ import java.io.File;
 import org.apache.tools.ant.BuildException;
 import org.apache.tools.ant.Task;
 import org.eclipse.corundum.AntTaskOperationContext;
-import org.eclipse.corundum.FileSystemExcludes;
+import org.eclipse.corundum.ExcludeFilter;
+import org.eclipse.corundum.FileSystemSnapshot;
 
 /**
  * @author <a href="konstantin@komissarchik.net">Konstantin Komissarchik</a>
@@ -26,7 +27,10 @@ public final class GenRepositoryLandingTask extends Task
 {
     private File repository;
     private String name;
-    private final FileSystemExcludes excludes = new FileSystemExcludes();
+    private final ExcludeFilter excludes = new ExcludeFilter();
+    private int parallelism = 1;
+    private File cache;
+    private boolean reuse = false;
     
     public void setRepository( final File repository )
     {
@@ -38,8 +42,33 @@ public final class GenRepositoryLandingTask extends Task
         this.name = name;
     }
     
-    public FileSystemExcludes createExcludes()
+    public void setParallelism( final int parallelism )
     {
+        if( parallelism < 1 )
+        {
+            throw new BuildException( "The \"parallelism\" attribute must be a positive number." );
+        }
+        
+        this.parallelism = parallelism;
+    }
+    
+    public void setCache( final File cache )
+    {
+        this.cache = cache;
+    }
+    
+    /**
+     * Uses the repository as it was last read by the snapshot instead of reading it again.
+     */
+    
+    public void setReuse( final boolean reuse )
+    {
+        this.reuse = reuse;
+    }
+    
+    public ExcludeFilter createExcludes()
+    {
+        this.excludes.setProject( getProject() );
         return this.excludes;
     }
     
@@ -51,10 +80,22 @@ public final class GenRepositoryLandingTask extends Task
             throw new BuildException( "The \"repository\" attribute must be specified." );
         }
         
+        final FileSystemSnapshot snapshot = FileSystemSnapshot.get( getProject() );
+        
+        if( ! this.reuse )
+        {
+            // The repository may have been changed by tasks that do not update the snapshot.
+            
+            snapshot.invalidate( this.repository );
+        }
+        
         final GenRepositoryLandingOp op = new GenRepositoryLandingOp();
         op.setRepository( this.repository );
         op.setName( this.name );
-        op.getExcludes().addAll( this.excludes.list() );
+        op.getExcludes().addFilter( this.excludes );
+        op.setParallelism( this.parallelism );
+        op.setCache( this.cache );
+        op.setSnapshot( snapshot );
         op.execute( new AntTaskOperationContext( this ) );
     }
     
@@ -13,19 +13,26 @@ package org.eclipse.corundum.listing;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.Writer;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
-import java.util.HashSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
 
 import org.eclipse.corundum.ClassResourceLoader;
-import org.eclipse.corundum.FileUtil;
+import org.eclipse.corundum.ExcludeFilter;
+import org.eclipse.corundum.FileSystemSnapshot;
 import org.eclipse.corundum.Operation;
 import org.eclipse.corundum.OperationContext;
+import org.eclipse.corundum.Template;
 
 /**
  * @author <a href="konstantin@komissarchik.net">Konstantin Komissarchik</a>
@@ -40,13 +47,17 @@ public final class GenFolderListingOp extends Operation
     private static final String NL = System.getProperty( "line.separator" );
     
     private static final ClassResourceLoader RESOURCE_LOADER = new ClassResourceLoader( GenFolderListingOp.class );
-    private static final String LISTING_PAGE_TEMPLATE = RESOURCE_LOADER.resource( "ListingPageTemplate.txt" ).text();
-    private static final String LISTING_ENTRY_TEMPLATE = RESOURCE_LOADER.resource( "ListingEntryTemplate.txt" ).text();
-    private static final String LISTING_ENTRY_WITHOUT_SPARKLINE_TEMPLATE = RESOURCE_LOADER.resource( "ListingEntryWithoutSparklineTemplate.txt" ).text();
-    private static final String SUMMARY_ENTRY_TEMPLATE = RESOURCE_LOADER.resource( "SummaryEntryTemplate.txt" ).text();
+    private static final Template LISTING_PAGE_TEMPLATE = RESOURCE_LOADER.resource( "ListingPageTemplate.txt" ).template();
+    private static final Template LISTING_ENTRY_TEMPLATE = RESOURCE_LOADER.resource( "ListingEntryTemplate.txt" ).template();
+    private static final Template LISTING_ENTRY_WITHOUT_SPARKLINE_TEMPLATE = RESOURCE_LOADER.resource( "ListingEntryWithoutSparklineTemplate.txt" ).template();
+    private static final Template SUMMARY_ENTRY_TEMPLATE = RESOURCE_LOADER.resource( "SummaryEntryTemplate.txt" ).template();
     
     private File folder;
-    private final Set<File> excludes = new HashSet<File>();
+    private final ExcludeFilter excludes = new ExcludeFilter();
+    private int parallelism = 1;
+    private File cacheFile;
+    private ListingCache cache;
+    private FileSystemSnapshot snapshot = new FileSystemSnapshot();
     
     public File getFolder()
     {
@@ -58,68 +69,278 @@ public final class GenFolderListingOp extends Operation
         this.folder = folder;
     }
     
-    public final Set<File> getExcludes()
+    public final ExcludeFilter getExcludes()
     {
         return this.excludes;
     }
     
+    public int getParallelism()
+    {
+        return this.parallelism;
+    }
+    
+    /**
+     * Sets the number of threads that generate listings. With more than one thread, each folder is
+     * generated by a fork/join task that returns the summary of the folder to its parent. The log
+     * messages of each subtree are buffered and logged once all folders have been generated, in the
+     * same order as when generating serially.
+     */
+    
+    public void setParallelism( final int parallelism )
+    {
+        if( parallelism < 1 )
+        {
+            throw new IllegalArgumentException();
+        }
+        
+        this.parallelism = parallelism;
+    }
+    
+    public File getCache()
+    {
+        return this.cacheFile;
+    }
+    
+    /**
+     * Sets the file that keeps the summary of each folder between runs. The listing of a folder is
+     * only generated again if the folder or one of its subfolders has changed since the previous run,
+     * as detected by the modification time and the children of each folder. Changes to the content of
+     * existing files are not detected, since they do not change the modification time of the folder.
+     * The cache file is not listed.
+     */
+    
+    public void setCache( final File cache )
+    {
+        this.cacheFile = ( cache == null ? null : cache.getAbsoluteFile() );
+    }
+    
+    public FileSystemSnapshot getSnapshot()
+    {
+        return this.snapshot;
+    }
+    
+    /**
+     * Sets the snapshot that provides the attributes of the files, typically the snapshot of the build.
+     */
+    
+    public void setSnapshot( final FileSystemSnapshot snapshot )
+    {
+        this.snapshot = ( snapshot == null ? new FileSystemSnapshot() : snapshot );
+    }
+    
     @Override
     public void execute( final OperationContext context )
     {
-        generate( context, this.folder );
+        this.cache = ( this.cacheFile == null ? null : ListingCache.load( this.cacheFile ) );
+        
+        if( this.parallelism > 1 )
+        {
+            final FolderTask task = new FolderTask( context, this.folder, "" );
+            final ForkJoinPool pool = new ForkJoinPool( this.parallelism );
+            
+            try
+            {
+                pool.invoke( task );
+            }
+            finally
+            {
+                pool.shutdown();
+            }
+            
+            for( String message : task.messages )
+            {
+                context.log( message );
+            }
+        }
+        else
+        {
+            generate( context, this.folder, "", null );
+        }
+        
+        if( this.cache != null )
+        {
+            try
+            {
+                this.cache.save( this.cacheFile );
+            }
+            catch( final IOException e )
+            {
+                throw new RuntimeException( e );
+            }
+        }
     }
     
-    private Entry generate( final OperationContext context, final File target )
+    /**
+     * @param path the path of the folder relative to the root folder, which identifies the folder in the cache
+     * @param messages the buffer that receives the log messages of the subtree or null to log them
+     *   right away and to generate the subfolders serially
+     */
+    
+    private Entry generate( final OperationContext context, final File target, final String path, final List<String> messages )
     {
-        context.log( "Generating listing for " + target.getPath() );
+        final List<String> names = new ArrayList<String>();
         
-        final List<Entry> entries = new ArrayList<Entry>();
+        for( final String name : target.list() )
+        {
+            final File f = new File( target, name );
+            
+            if( ! name.equals( "index.html" ) && ! this.excludes.isExcluded( f )
+                && ( this.cacheFile == null || ! f.getAbsoluteFile().equals( this.cacheFile ) ) )
+            {
+                names.add( name );
+            }
+        }
         
-        Date overallDateModified = new Date( 0 );
-        long maxSize = 0;
-        long totalSize = 0;
-        int folderCount = 0;
-        int fileCount = 0;
+        final ListingCache.Folder cached = ( this.cache == null ? null : this.cache.get( path ) );
+        final List<Entry> entries = new ArrayList<Entry>();
+        final List<File> folders = new ArrayList<File>();
         
-        for( final File f : target.listFiles() )
+        if( cached != null && cached.getModified() == target.lastModified() && cached.hasChildren( names )
+            && context.file( new File( target, "index.html" ) ).exists() )
+        {
+            // The children of an unchanged folder are taken from the cache without examining the
+            // files, and the listing is only generated again if a subfolder has changed.
+            
+            entries.addAll( cached.getFiles() );
+            
+            for( String name : cached.getFolders() )
+            {
+                folders.add( new File( target, name ) );
+            }
+            
+            boolean changed = false;
+            
+            for( Entry entry : generate( context, path, folders, messages ) )
+            {
+                entries.add( entry );
+                changed = changed || entry.isGenerated();
+            }
+            
+            if( ! changed )
+            {
+                this.cache.put( path, cached );
+                return new Entry( target.getName(), new Date( cached.getDateModified() ), cached.getSize(), true );
+            }
+            
+            log( context, messages, "Generating listing for " + target.getPath() );
+        }
+        else
         {
-            final boolean isFile = f.isFile();
-            final boolean isDirectory = f.isDirectory();
-            final String name = f.getName();
+            log( context, messages, "Generating listing for " + target.getPath() );
             
-            if( ( isFile || isDirectory ) && ! name.equals( "index.html" ) && ! this.excludes.contains( f ) )
+            for( String name : names )
             {
-                final Entry entry;
+                final File f = new File( target, name );
+                final FileSystemSnapshot.Entry attributes = this.snapshot.get( f );
                 
-                if( isFile )
+                if( attributes == null )
                 {
-                    entry = new Entry( name, new Date( f.lastModified() ), f.length() );
-                    fileCount++;
+                    continue;
                 }
-                else
+                
+                if( attributes.isFile() )
                 {
-                    entry = generate( context, f );
-                    folderCount++;
+                    entries.add( new Entry( name, new Date( attributes.getLastModified() ), attributes.getSize() ) );
                 }
-                
-                entries.add( entry );
-                
-                final Date dateModified = entry.getDateModified();
-                
-                if( dateModified.compareTo( overallDateModified ) > 0 )
+                else if( attributes.isDirectory() )
                 {
-                    overallDateModified = dateModified;
+                    folders.add( f );
                 }
-                
-                final long size = entry.getSize();
-                
-                if( size > maxSize )
+            }
+            
+            entries.addAll( generate( context, path, folders, messages ) );
+        }
+        
+        final Entry entry = render( context, target, entries );
+        
+        if( this.cache != null )
+        {
+            final List<Entry> files = new ArrayList<Entry>();
+            final List<String> folderNames = new ArrayList<String>();
+            
+            for( Entry child : entries )
+            {
+                if( child.isFolder() )
                 {
-                    maxSize = size;
+                    folderNames.add( child.getName() );
+                }
+                else
+                {
+                    files.add( child );
                 }
-                
-                totalSize += size;
             }
+            
+            // The modification time is read after the listing is written, since creating the listing
+            // changes the modification time of the folder.
+            
+            this.cache.put( path, new ListingCache.Folder( target.lastModified(), entry.getSize(), entry.getDateModified().getTime(),
+                                                           files, folderNames ) );
+        }
+        
+        return entry;
+    }
+    
+    private List<Entry> generate( final OperationContext context, final String path, final List<File> folders, final List<String> messages )
+    {
+        final List<Entry> entries = new ArrayList<Entry>( folders.size() );
+        
+        if( messages == null )
+        {
+            for( File f : folders )
+            {
+                entries.add( generate( context, f, child( path, f ), null ) );
+            }
+        }
+        else
+        {
+            final List<FolderTask> tasks = new ArrayList<FolderTask>( folders.size() );
+            
+            for( File f : folders )
+            {
+                tasks.add( new FolderTask( context, f, child( path, f ) ) );
+            }
+            
+            ForkJoinTask.invokeAll( tasks );
+            
+            for( FolderTask task : tasks )
+            {
+                entries.add( task.join() );
+                messages.addAll( task.messages );
+            }
+        }
+        
+        return entries;
+    }
+    
+    private Entry render( final OperationContext context, final File target, final List<Entry> entries )
+    {
+        Date overallDateModified = new Date( 0 );
+        long maxSize = 0;
+        long totalSize = 0;
+        int folderCount = 0;
+        
+        for( Entry entry : entries )
+        {
+            if( entry.isFolder() )
+            {
+                folderCount++;
+            }
+            
+            final Date dateModified = entry.getDateModified();
+            
+            if( dateModified.compareTo( overallDateModified ) > 0 )
+            {
+                overallDateModified = dateModified;
+            }
+            
+            final long size = entry.getSize();
+            
+            if( size > maxSize )
+            {
+                maxSize = size;
+            }
+            
+            totalSize += size;
         }
         
         Collections.sort
@@ -142,59 +363,113 @@ public final class GenFolderListingOp extends Operation
             }
         );
         
-        final int count = fileCount + folderCount;
+        final int fileCount = entries.size() - folderCount;
         final long segmentSize = maxSize / 200;
-        final StringBuilder listing = new StringBuilder();
         
-        for( final Entry entry : entries )
+        final Template.Content listing = new Template.Content()
         {
-            String block = ( count > 1 ? LISTING_ENTRY_TEMPLATE : LISTING_ENTRY_WITHOUT_SPARKLINE_TEMPLATE )
-                .replace( "${name}", entry.getName() )
-                .replace( "${href}", entry.getName() + ( entry.isFolder() ? "/index.html" : "" ) )
-                .replace( "${type}", entry.isFolder() ? "folder" : "file" )
-                .replace( "${size}", toSizeForDisplay( entry.getSize() ) );
-            
-            if( count > 1 )
+            @Override
+            public void write( final Writer out ) throws IOException
             {
-                int segments = (int) Math.round( (double) entry.getSize() / segmentSize );
-                segments = segments == 0 ? 1 : segments;
+                final boolean sparkline = ( entries.size() > 1 );
+                final Template template = ( sparkline ? LISTING_ENTRY_TEMPLATE : LISTING_ENTRY_WITHOUT_SPARKLINE_TEMPLATE );
+                final Map<String,Object> values = new HashMap<String,Object>();
+                boolean first = true;
                 
-                block = block.replace( "${segments}", String.valueOf( segments ) );
+                for( final Entry entry : entries )
+                {
+                    if( ! first )
+                    {
+                        out.write( NL );
+                    }
+                    
+                    values.put( "name", entry.getName() );
+                    values.put( "href", entry.isFolder() ? entry.getName() + "/index.html" : entry.getName() );
+                    values.put( "type", entry.isFolder() ? "folder" : "file" );
+                    values.put( "size", toSizeForDisplay( entry.getSize() ) );
+                    
+                    if( sparkline )
+                    {
+                        final int segments = (int) Math.round( (double) entry.getSize() / segmentSize );
+                        values.put( "segments", segments == 0 ? 1 : segments );
+                    }
+                    
+                    template.render( out, values );
+                    first = false;
+                }
             }
-            
-            append( listing, block, "\n" );
-        }
+        };
         
-        final StringBuilder summary = new StringBuilder();
+        final Map<String,String> summaryLines = new LinkedHashMap<String,String>();
         
         if( folderCount > 0 )
         {
-            appendSummaryLine( summary, "Folders", String.valueOf( folderCount ) );
+            summaryLines.put( "Folders", String.valueOf( folderCount ) );
         }
         
         if( fileCount > 0 )
         {
-            appendSummaryLine( summary, "Files", String.valueOf( fileCount ) );
+            summaryLines.put( "Files", String.valueOf( fileCount ) );
         }
         
-        appendSummaryLine( summary, "Size", toSizeForDisplay( totalSize ) );
-        appendSummaryLine( summary, "Date Modified", new SimpleDateFormat( "yyyy-MM-dd" ).format( overallDateModified ) );
+        summaryLines.put( "Size", toSizeForDisplay( totalSize ) );
+        summaryLines.put( "Date Modified", new SimpleDateFormat( "yyyy-MM-dd" ).format( overallDateModified ) );
         
-        final String text = LISTING_PAGE_TEMPLATE
-            .replace( "${listing}", listing.toString() )
-            .replace( "${summary}", summary.toString() )
-            .replace( "\n", NL );
+        final Template.Content summary = new Template.Content()
+        {
+            @Override
+            public void write( final Writer out ) throws IOException
+            {
+                final Map<String,Object> values = new HashMap<String,Object>();
+                boolean first = true;
+                
+                for( Map.Entry<String,String> line : summaryLines.entrySet() )
+                {
+                    if( ! first )
+                    {
+                        out.write( NL );
+                    }
+                    
+                    values.put( "key", line.getKey() );
+                    values.put( "value", line.getValue() );
+                    
+                    SUMMARY_ENTRY_TEMPLATE.render( out, values );
+                    first = false;
+                }
+            }
+        };
+        
+        final Map<String,Object> values = new HashMap<String,Object>();
+        values.put( "listing", listing );
+        values.put( "summary", summary );
         
         try
         {
-            FileUtil.write( context.file( new File( target, "index.html" ) ), text );
+            LISTING_PAGE_TEMPLATE.write( context.file( new File( target, "index.html" ) ), values );
         }
         catch( final IOException e )
         {
             throw new RuntimeException( e );
         }
         
-        return new Entry( target.getName(), overallDateModified, totalSize, true );
+        return new Entry( target.getName(), overallDateModified, totalSize, true, true );
+    }
+    
+    private static String child( final String path, final File folder )
+    {
+        return ( path.length() == 0 ? folder.getName() : path + "/" + folder.getName() );
+    }
+    
+    private static void log( final OperationContext context, final List<String> messages, final String message )
+    {
+        if( messages == null )
+        {
+            context.log( message );
+        }
+        else
+        {
+            messages.add( message );
+        }
     }
     
     private static String toSizeForDisplay( final long size )
@@ -221,30 +496,35 @@ public final class GenFolderListingOp extends Operation
         return text;
     }
     
-    private static void appendSummaryLine( final StringBuilder summary, final String key, final String value )
-    {
-        final String block = SUMMARY_ENTRY_TEMPLATE
-            .replace( "${key}", key )
-            .replace( "${value}", value );
-            
-         append( summary, block, "\n" );
-    }
-    
-    private static void append( final StringBuilder string, final String segment, final String separator )
+    private final class FolderTask extends RecursiveTask<Entry>
     {
-        if( string.length() > 0 )
+        private static final long serialVersionUID = 1L;
+        
+        private final OperationContext context;
+        private final File target;
+        private final String path;
+        private final List<String> messages = new ArrayList<String>();
+        
+        public FolderTask( final OperationContext context, final File target, final String path )
         {
-            string.append( separator );
+            this.context = context;
+            this.target = target;
+            this.path = path;
         }
         
-        string.append( segment );
+        @Override
+        protected Entry compute()
+        {
+            return generate( this.context, this.target, this.path, this.messages );
+        }
     }
     
-    private static final class Entry
+    static final class Entry
     {
         private final String name;
         private final long size;
         private final boolean folder;
+        private final boolean generated;
         private final Date dateModified;
         
         public Entry( String name, final Date dateModified, final long size )
@@ -253,6 +533,16 @@ public final class GenFolderListingOp extends Operation
         }
         
         public Entry( String name, final Date dateModified, final long size, final boolean folder )
+        {
+            this( name, dateModified, size, folder, false );
+        }
+        
+        /**
+         * @param generated whether the listing of the folder was generated, as opposed to being
+         *   taken from the cache
+         */
+        
+        public Entry( String name, final Date dateModified, final long size, final boolean folder, final boolean generated )
         {
             if( name == null )
             {
@@ -268,6 +558,7 @@ public final class GenFolderListingOp extends Operation
             this.dateModified = dateModified;
             this.size = size;
             this.folder = folder;
+            this.generated = generated;
         }
         
         public String getName()
@@ -289,6 +580,11 @@ public final class GenFolderListingOp extends Operation
         {
             return this.folder;
         }
+        
+        public boolean isGenerated()
+        {
+            return this.generated;
+        }
     }
     
 }
\ No newline at end of file
@@ -16,7 +16,8 @@ import java.io.File;
 import org.apache.tools.ant.BuildException;
 import org.apache.tools.ant.Task;
 import org.eclipse.corundum.AntTaskOperationContext;
-import org.eclipse.corundum.FileSystemExcludes;
+import org.eclipse.corundum.ExcludeFilter;
+import org.eclipse.corundum.FileSystemSnapshot;
 
 /**
  * @author <a href="konstantin@komissarchik.net">Konstantin Komissarchik</a>
@@ -25,15 +26,43 @@ import org.eclipse.corundum.FileSystemExcludes;
 public final class GenFolderListingTask extends Task
 {
     private File folder;
-    private final FileSystemExcludes excludes = new FileSystemExcludes();
+    private final ExcludeFilter excludes = new ExcludeFilter();
+    private int parallelism = 1;
+    private File cache;
+    private boolean reuse = false;
     
     public void setFolder( final File folder )
     {
         this.folder = folder;
     }
     
-    public FileSystemExcludes createExcludes()
+    public void setParallelism( final int parallelism )
     {
+        if( parallelism < 1 )
+        {
+            throw new BuildException( "The \"parallelism\" attribute must be a positive number." );
+        }
+        
+        this.parallelism = parallelism;
+    }
+    
+    public void setCache( final File cache )
+    {
+        this.cache = cache;
+    }
+    
+    /**
+     * Uses the folder as it was last read by the snapshot instead of reading it again.
+     */
+    
+    public void setReuse( final boolean reuse )
+    {
+        this.reuse = reuse;
+    }
+    
+    public ExcludeFilter createExcludes()
+    {
+        this.excludes.setProject( getProject() );
         return this.excludes;
     }
     
@@ -45,9 +74,21 @@ public final class GenFolderListingTask extends Task
             throw new BuildException( "The \"folder\" attribute must be specified." );
         }
         
+        final FileSystemSnapshot snapshot = FileSystemSnapshot.get( getProject() );
+        
+        if( ! this.reuse )
+        {
+            // The folder may have been changed by tasks that do not update the snapshot.
+            
+            snapshot.invalidate( this.folder );
+        }
+        
         final GenFolderListingOp op = new GenFolderListingOp();
         op.setFolder( this.folder );
-        op.getExcludes().addAll( this.excludes.list() );
+        op.getExcludes().addFilter( this.excludes );
+        op.setParallelism( this.parallelism );
+        op.setCache( this.cache );
+        op.setSnapshot( snapshot );
         op.execute( new AntTaskOperationContext( this ) );
     }
     
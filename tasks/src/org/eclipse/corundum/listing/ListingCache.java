@@ -0,0 +1,219 @@
+/******************************************************************************
+ * Copyright (c) 2016 Oracle
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Konstantin Komissarchik - initial implementation and ongoing maintenance
+ ******************************************************************************/
+
+package org.eclipse.corundum.listing;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.eclipse.corundum.PersistentCache;
+
+/**
+ * Persistent cache of the summary of each folder in a folder listing, keyed by the path of the folder
+ * relative to the root of the listing. Each entry holds the modification time of the folder, the
+ * total size and the latest modification time of its content, and the files and subfolders that were
+ * listed, so that the listing of a folder can be generated again without examining its files.
+ *
+ * @author <a href="konstantin@komissarchik.net">Konstantin Komissarchik</a>
+ */
+
+final class ListingCache extends PersistentCache<ListingCache.Folder>
+{
+    private static final String HEADER = "# corundum listing cache 1";
+    private static final String FOLDER = "D";
+    private static final String FILE = "F";
+    private static final String SUBFOLDER = "S";
+    
+    // The folder whose files and subfolders are being read
+    
+    private Folder folder;
+    
+    private ListingCache()
+    {
+        super( HEADER );
+    }
+    
+    public static ListingCache load( final File file )
+    {
+        final ListingCache cache = new ListingCache();
+        cache.read( file );
+        cache.folder = null;
+        return cache;
+    }
+    
+    @Override
+    protected void parse( final String line, final String[] segments )
+    {
+        if( segments[ 0 ].equals( FOLDER ) && segments.length == 5 )
+        {
+            this.folder = new Folder( Long.parseLong( segments[ 2 ] ), Long.parseLong( segments[ 3 ] ), Long.parseLong( segments[ 4 ] ),
+                                      new ArrayList<GenFolderListingOp.Entry>(), new ArrayList<String>() );
+            
+            add( segments[ 1 ], this.folder );
+        }
+        else if( segments[ 0 ].equals( FILE ) && segments.length == 4 && this.folder != null )
+        {
+            this.folder.files.add( new GenFolderListingOp.Entry( segments[ 1 ], new Date( Long.parseLong( segments[ 3 ] ) ),
+                                                                 Long.parseLong( segments[ 2 ] ) ) );
+        }
+        else if( segments[ 0 ].equals( SUBFOLDER ) && segments.length == 2 && this.folder != null )
+        {
+            this.folder.folders.add( segments[ 1 ] );
+        }
+        else
+        {
+            throw new IllegalArgumentException( line );
+        }
+    }
+    
+    /**
+     * Returns the entry for the specified folder from the previous run or null if there is no entry.
+     */
+    
+    public Folder get( final String path )
+    {
+        return lookup( path );
+    }
+    
+    public void put( final String path, final Folder folder )
+    {
+        use( path, folder );
+    }
+    
+    /**
+     * Writes a folder along with its files and subfolders. Folders whose names cannot be stored are
+     * left out and are examined again by the next run.
+     */
+    
+    @Override
+    protected void write( final StringBuilder buf, final String path, final Folder folder )
+    {
+        if( ! folder.isStorable() )
+        {
+            return;
+        }
+        
+        buf.append( FOLDER ).append( SEPARATOR ).append( path ).append( SEPARATOR ).append( folder.modified )
+           .append( SEPARATOR ).append( folder.size ).append( SEPARATOR ).append( folder.dateModified ).append( '\n' );
+        
+        for( GenFolderListingOp.Entry entry : folder.files )
+        {
+            buf.append( FILE ).append( SEPARATOR ).append( entry.getName() ).append( SEPARATOR ).append( entry.getSize() )
+               .append( SEPARATOR ).append( entry.getDateModified().getTime() ).append( '\n' );
+        }
+        
+        for( String name : folder.folders )
+        {
+            buf.append( SUBFOLDER ).append( SEPARATOR ).append( name ).append( '\n' );
+        }
+    }
+    
+    static final class Folder
+    {
+        private final long modified;
+        private final long size;
+        private final long dateModified;
+        private final List<GenFolderListingOp.Entry> files;
+        private final List<String> folders;
+        
+        /**
+         * @param modified the modification time of the folder itself
+         * @param size the total size of the content of the folder
+         * @param dateModified the latest modification time of the content of the folder
+         */
+        
+        public Folder( final long modified,
+                       final long size,
+                       final long dateModified,
+                       final List<GenFolderListingOp.Entry> files,
+                       final List<String> folders )
+        {
+            this.modified = modified;
+            this.size = size;
+            this.dateModified = dateModified;
+            this.files = files;
+            this.folders = folders;
+        }
+        
+        public long getModified()
+        {
+            return this.modified;
+        }
+        
+        public long getSize()
+        {
+            return this.size;
+        }
+        
+        public long getDateModified()
+        {
+            return this.dateModified;
+        }
+        
+        public List<GenFolderListingOp.Entry> getFiles()
+        {
+            return this.files;
+        }
+        
+        public List<String> getFolders()
+        {
+            return this.folders;
+        }
+        
+        /**
+         * Returns whether the folder had the specified children, in any order.
+         */
+        
+        public boolean hasChildren( final Collection<String> names )
+        {
+            if( names.size() != this.files.size() + this.folders.size() )
+            {
+                return false;
+            }
+            
+            final Set<String> children = new HashSet<String>( this.folders );
+            
+            for( GenFolderListingOp.Entry entry : this.files )
+            {
+                children.add( entry.getName() );
+            }
+            
+            return children.containsAll( names );
+        }
+        
+        private boolean isStorable()
+        {
+            for( GenFolderListingOp.Entry entry : this.files )
+            {
+                if( ! PersistentCache.isStorable( entry.getName() ) )
+                {
+                    return false;
+                }
+            }
+            
+            for( String name : this.folders )
+            {
+                if( ! PersistentCache.isStorable( name ) )
+                {
+                    return false;
+                }
+            }
+            
+            return true;
+        }
+    }
+    
+}